@@ -9,6 +9,78 @@
  *******************************************************************************/
 package org.boris.pecoff4j;
 
+import java.util.Arrays;
+
+/**
+ * The decoded base relocation blocks. Each block holds the fixups of one
+ * 4K page; the fixups of all blocks are kept in a single array as the raw
+ * 16 bit entries (type in the top 4 bits, offset into the page below).
+ */
 public class BaseRelocationTable {
+  private int blockCount;
+  private int[] pageRVAs = new int[8];
+  // Index of the first entry of each block, plus the total at the end
+  private int[] firstEntries = new int[9];
+  private int entryCount;
+  private short[] entries = new short[64];
+
+  public void addBlock(int pageRVA) {
+    if (blockCount == pageRVAs.length) {
+      pageRVAs = Arrays.copyOf(pageRVAs, blockCount * 2);
+      firstEntries = Arrays.copyOf(firstEntries, blockCount * 2 + 1);
+    }
+    pageRVAs[blockCount++] = pageRVA;
+    firstEntries[blockCount] = entryCount;
+  }
+
+  /**
+   * Adds a raw entry to the last block.
+   */
+  public void addEntry(int entry) {
+    if (entryCount == entries.length)
+      entries = Arrays.copyOf(entries, entryCount * 2);
+    entries[entryCount++] = (short) entry;
+    firstEntries[blockCount] = entryCount;
+  }
+
+  public int getBlockCount() {
+    return blockCount;
+  }
+
+  public int getPageRVA(int block) {
+    return pageRVAs[block];
+  }
+
+  public int getFirstEntry(int block) {
+    return firstEntries[block];
+  }
+
+  public int getEntryCount(int block) {
+    return firstEntries[block + 1] - firstEntries[block];
+  }
+
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * One of the {@link org.boris.pecoff4j.constant.BaseRelocationType}s.
+   */
+  public int getType(int entry) {
+    return (entries[entry] & 0xffff) >>> 12;
+  }
+
+  /**
+   * The offset of the fixup into the page of its block.
+   */
+  public int getOffset(int entry) {
+    return entries[entry] & 0xfff;
+  }
 
+  /**
+   * The raw 16 bit entry, for types that use the next entry as a parameter.
+   */
+  public int getEntry(int entry) {
+    return entries[entry] & 0xffff;
+  }
 }
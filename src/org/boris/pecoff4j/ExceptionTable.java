@@ -9,6 +9,78 @@
  *******************************************************************************/
 package org.boris.pecoff4j;
 
+import java.util.Arrays;
+
+/**
+ * The RUNTIME_FUNCTION entries of the exception directory (.pdata), kept as
+ * three parallel arrays of begin, end and unwind information addresses.
+ * The linker sorts the entries by begin address, which makes this the list
+ * of function boundaries of the image. The unwind information of x64
+ * images is decoded by {@link org.boris.pecoff4j.io.UnwindInfoReader}.
+ */
 public class ExceptionTable {
+  private int functionCount;
+  private int[] beginAddresses = new int[16];
+  private int[] endAddresses = new int[16];
+  private int[] unwindInfoAddresses = new int[16];
+  private boolean sorted = true;
+
+  public void add(int beginAddress, int endAddress, int unwindInfoAddress) {
+    if (functionCount == beginAddresses.length) {
+      int size = functionCount * 2;
+      beginAddresses = Arrays.copyOf(beginAddresses, size);
+      endAddresses = Arrays.copyOf(endAddresses, size);
+      unwindInfoAddresses = Arrays.copyOf(unwindInfoAddresses, size);
+    }
+    if (functionCount > 0 && beginAddress < endAddresses[functionCount - 1])
+      sorted = false;
+    beginAddresses[functionCount] = beginAddress;
+    endAddresses[functionCount] = endAddress;
+    unwindInfoAddresses[functionCount] = unwindInfoAddress;
+    functionCount++;
+  }
+
+  public int getFunctionCount() {
+    return functionCount;
+  }
+
+  public int getBeginAddress(int index) {
+    return beginAddresses[index];
+  }
+
+  public int getEndAddress(int index) {
+    return endAddresses[index];
+  }
+
+  public int getUnwindInfoAddress(int index) {
+    return unwindInfoAddresses[index];
+  }
 
+  /**
+   * Returns the index of the function whose code holds <code>rva</code>,
+   * or -1. Entries that are not sorted, or that overlap, are searched one by
+   * one.
+   */
+  public int functionContaining(int rva) {
+    if (!sorted) {
+      for (int i = 0; i < functionCount; i++) {
+        if (rva >= beginAddresses[i] && rva < endAddresses[i])
+          return i;
+      }
+      return -1;
+    }
+    int lo = 0;
+    int hi = functionCount - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (rva < beginAddresses[mid]) {
+        hi = mid - 1;
+      } else if (rva >= endAddresses[mid]) {
+        lo = mid + 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
 }
@@ -11,6 +11,7 @@ package org.boris.pecoff4j;
 
 import org.boris.pecoff4j.util.DataObject;
 import org.boris.pecoff4j.util.Reflection;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * The export directory table. See section 6.3.1 of the PE/COFF specification
@@ -28,6 +29,8 @@ public class ExportDirectory extends DataObject {
   private long exportAddressTableRVA;
   private long namePointerRVA;
   private long ordinalTableRVA;
+  @Nullable
+  private ExportLookupTable lookupTable;
 
   public long getExportFlags() {
     return exportFlags;
@@ -120,4 +123,16 @@ public class ExportDirectory extends DataObject {
   public void setOrdinalTableRVA(long ordinalTableRVA) {
     this.ordinalTableRVA = ordinalTableRVA;
   }
+
+  /**
+   * The address, name and ordinal tables, or null if they were not read.
+   */
+  @Nullable
+  public ExportLookupTable getLookupTable() {
+    return lookupTable;
+  }
+
+  public void setLookupTable(@Nullable ExportLookupTable lookupTable) {
+    this.lookupTable = lookupTable;
+  }
 }
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The export address, name pointer and ordinal tables of an image, read in
+ * place from the section that holds the export directory. The tables are
+ * viewed as int and short buffers the first time they are needed, and
+ * names are only decoded when asked for, so over a mapped file nothing is
+ * copied.
+ * <p/>
+ * Exports are identified by their index into the address table, which is
+ * the ordinal less the ordinal base.
+ */
+public class ExportLookupTable {
+  public static final int NOT_FOUND = -1;
+
+  @NotNull
+  private final ByteBuffer section;
+  private final int sectionAddress;
+  private final int ordinalBase;
+  private final int directoryAddress;
+  private final int directorySize;
+
+  private final int addressTableRVA;
+  private final int addressCount;
+  private final int namePointerRVA;
+  private final int ordinalTableRVA;
+  private final int nameCount;
+
+  @Nullable
+  private IntBuffer addresses;
+  @Nullable
+  private IntBuffer namePointers;
+  @Nullable
+  private ShortBuffer ordinals;
+
+  /**
+   * @param section          the raw data of the section holding the tables
+   * @param sectionAddress   the virtual address of that section
+   * @param directoryAddress the virtual address of the export directory,
+   *                         used with its size to recognise forwarders
+   */
+  public ExportLookupTable(@NotNull ByteBuffer section, int sectionAddress,
+                           @NotNull ExportDirectory ed, int directoryAddress,
+                           int directorySize) {
+    this.section = section.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    this.section.clear();
+    this.sectionAddress = sectionAddress;
+    this.ordinalBase = (int) ed.getOrdinalBase();
+    this.directoryAddress = directoryAddress;
+    this.directorySize = directorySize;
+
+    addressTableRVA = (int) ed.getExportAddressTableRVA();
+    namePointerRVA = (int) ed.getNamePointerRVA();
+    ordinalTableRVA = (int) ed.getOrdinalTableRVA();
+    // Tables that do not fit in the section are left out
+    int ac = (int) ed.getAddressTableEntries();
+    addressCount = contains(addressTableRVA, ac, 4) ? ac : 0;
+    int nc = (int) ed.getNumberOfNamePointers();
+    nameCount = contains(namePointerRVA, nc, 4) && contains(ordinalTableRVA, nc, 2) ? nc : 0;
+  }
+
+  private boolean contains(int rva, int count, int size) {
+    int offset = rva - sectionAddress;
+    return count >= 0 && offset >= 0 && count <= (section.limit() - offset) / size;
+  }
+
+  @NotNull
+  private ByteBuffer slice(int rva, int length) {
+    ByteBuffer b = section.duplicate();
+    b.position(rva - sectionAddress);
+    b.limit(rva - sectionAddress + length);
+    return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @NotNull
+  private IntBuffer addresses() {
+    if (addresses == null)
+      addresses = slice(addressTableRVA, addressCount * 4).asIntBuffer();
+    return addresses;
+  }
+
+  @NotNull
+  private IntBuffer namePointers() {
+    if (namePointers == null)
+      namePointers = slice(namePointerRVA, nameCount * 4).asIntBuffer();
+    return namePointers;
+  }
+
+  @NotNull
+  private ShortBuffer ordinals() {
+    if (ordinals == null)
+      ordinals = slice(ordinalTableRVA, nameCount * 2).asShortBuffer();
+    return ordinals;
+  }
+
+  public int getOrdinalBase() {
+    return ordinalBase;
+  }
+
+  public int getAddressCount() {
+    return addressCount;
+  }
+
+  public int getNameCount() {
+    return nameCount;
+  }
+
+  /**
+   * The RVA an export resolves to, or of its forwarder string. Zero for
+   * unused slots.
+   */
+  public int getAddress(int index) {
+    return addresses().get(index);
+  }
+
+  public int getOrdinal(int index) {
+    return ordinalBase + index;
+  }
+
+  /**
+   * Whether the export is forwarded to another module, which is the case
+   * when its address points back into the export directory.
+   */
+  public boolean isForwarder(int index) {
+    int rva = getAddress(index);
+    return rva >= directoryAddress && rva - directoryAddress < directorySize;
+  }
+
+  /**
+   * Returns the forwarder string, such as "NTDLL.RtlAllocateHeap", or null
+   * if the export is not forwarded.
+   */
+  @Nullable
+  public String getForwarder(int index) {
+    return isForwarder(index) ? readString(getAddress(index)) : null;
+  }
+
+  /**
+   * Returns the name at a position in the (sorted) name pointer table.
+   */
+  @Nullable
+  public String getName(int nameIndex) {
+    return readString(namePointers().get(nameIndex));
+  }
+
+  /**
+   * Returns the export index of the name at a position in the name pointer
+   * table.
+   */
+  public int getNameIndex(int nameIndex) {
+    return ordinals().get(nameIndex) & 0xffff;
+  }
+
+  /**
+   * Finds an export by name with a binary search over the name pointer
+   * table, which the linker sorts. Returns its index or {@link #NOT_FOUND}.
+   */
+  public int lookupByName(@NotNull String name) {
+    IntBuffer np = namePointers();
+    int lo = 0;
+    int hi = nameCount - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = compare(np.get(mid), name);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        int index = getNameIndex(mid);
+        return index < addressCount ? index : NOT_FOUND;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  /**
+   * Finds an export by ordinal. Returns its index or {@link #NOT_FOUND}.
+   */
+  public int lookupByOrdinal(int ordinal) {
+    int index = ordinal - ordinalBase;
+    if (index < 0 || index >= addressCount || getAddress(index) == 0)
+      return NOT_FOUND;
+    return index;
+  }
+
+  /**
+   * Compares the zero terminated string at an RVA with a name, byte by byte
+   * as the loader does.
+   */
+  private int compare(int rva, @NotNull String name) {
+    int offset = rva - sectionAddress;
+    int limit = section.limit();
+    if (offset < 0 || offset >= limit)
+      return 1;
+    for (int i = 0; ; i++) {
+      int c = offset + i < limit ? section.get(offset + i) & 0xff : 0;
+      int n = i < name.length() ? name.charAt(i) : 0;
+      if (c != n)
+        return c - n;
+      if (c == 0)
+        return 0;
+    }
+  }
+
+  @Nullable
+  private String readString(int rva) {
+    int offset = rva - sectionAddress;
+    if (offset < 0 || offset >= section.limit())
+      return null;
+    int end = offset;
+    while (end < section.limit() && section.get(end) != 0) {
+      end++;
+    }
+    char[] c = new char[end - offset];
+    for (int i = 0; i < c.length; i++) {
+      c[i] = (char) (section.get(offset + i) & 0xff);
+    }
+    return new String(c);
+  }
+}
@@ -9,41 +9,65 @@
  *******************************************************************************/
 package org.boris.pecoff4j;
 
+import org.boris.pecoff4j.constant.ImageDataDirectoryType;
+import org.boris.pecoff4j.util.DataObject;
 import org.boris.pecoff4j.util.IntMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.ByteBuffer;
+
 public class ImageData {
+  // Pseudo directory indexes for the hooks below
+  protected static final int DEBUG_RAW_DATA = -1;
+  protected static final int TRAILING_DATA = -2;
+  protected static final int PREAMBLES = -3;
+
   private byte[] headerPadding; // TODO find out what this is
 
   // Data members that correspond to image data directories
   private ExportDirectory exportTable;
   private ImportDirectory importTable;
   private ResourceDirectory resourceTable;
-  private byte[] exceptionTable;
-  private byte[] certificateTable;
-  private byte[] baseRelocationTable;
+  private ResourceIndex resourceIndex;
+  @NotNull
+  private final DataObject exceptionTable = new DataObject();
+  private ExceptionTable runtimeFunctions;
+  @NotNull
+  private final DataObject certificateTable = new DataObject();
+  @NotNull
+  private final DataObject baseRelocationTable = new DataObject();
+  private BaseRelocationTable baseRelocations;
   private DebugDirectory debug;
-  private byte[] architecture;
-  private byte[] globalPtr;
-  private byte[] tlsTable;
+  @NotNull
+  private final DataObject architecture = new DataObject();
+  @NotNull
+  private final DataObject globalPtr = new DataObject();
+  @NotNull
+  private final DataObject tlsTable = new DataObject();
   private LoadConfigDirectory loadConfigTable;
   private BoundImportDirectoryTable boundImports;
-  private byte[] iat;
-  private byte[] delayImportDescriptor;
-  private byte[] clrRuntimeHeader;
-  private byte[] reserved;
+  @NotNull
+  private final DataObject iat = new DataObject();
+  @NotNull
+  private final DataObject delayImportDescriptor = new DataObject();
+  @NotNull
+  private final DataObject clrRuntimeHeader = new DataObject();
+  @NotNull
+  private final DataObject reserved = new DataObject();
 
   // Debug type-specific data
   private byte[] debugRawDataPreamble;
-  private byte[] debugRawData;
+  @NotNull
+  private final DataObject debugRawData = new DataObject();
 
   // Any image data preambes
   @NotNull
-  private IntMap preambles = new IntMap();
+  private IntMap<byte[]> preambles = new IntMap<byte[]>();
 
   // Any trailing data
-  private byte[] trailingData;
+  @NotNull
+  private final DataObject trailingData = new DataObject();
 
   public byte[] getHeaderPadding() {
     return headerPadding;
@@ -55,7 +79,8 @@ public class ImageData {
 
   @Nullable
   public byte[] getPreamble(int directory) {
-    return (byte[]) preambles.get(directory);
+    ensureLoaded(PREAMBLES);
+    return preambles.get(directory);
   }
 
   public void put(int directory, byte[] preamble) {
@@ -63,154 +88,414 @@ public class ImageData {
   }
 
   public ExportDirectory getExportTable() {
+    ensureLoaded(ImageDataDirectoryType.EXPORT_TABLE);
     return exportTable;
   }
 
   public void setExportTable(ExportDirectory exportTable) {
+    markLoaded(ImageDataDirectoryType.EXPORT_TABLE);
     this.exportTable = exportTable;
   }
 
   public ImportDirectory getImportTable() {
+    ensureLoaded(ImageDataDirectoryType.IMPORT_TABLE);
     return importTable;
   }
 
   public void setImportTable(ImportDirectory importTable) {
+    markLoaded(ImageDataDirectoryType.IMPORT_TABLE);
     this.importTable = importTable;
   }
 
   public ResourceDirectory getResourceTable() {
+    ensureLoaded(ImageDataDirectoryType.RESOURCE_TABLE);
     return resourceTable;
   }
 
   public void setResourceTable(ResourceDirectory resourceTable) {
+    markLoaded(ImageDataDirectoryType.RESOURCE_TABLE);
     this.resourceTable = resourceTable;
+    this.resourceIndex = null;
+  }
+
+  /**
+   * An index over the resource table, built the first time it is asked for.
+   * Returns null if there is no resource table.
+   */
+  @Nullable
+  public ResourceIndex getResourceIndex() {
+    if (resourceIndex == null) {
+      ResourceDirectory rd = getResourceTable();
+      if (rd != null)
+        resourceIndex = new ResourceIndex(rd);
+    }
+    return resourceIndex;
   }
 
   public byte[] getExceptionTable() {
-    return exceptionTable;
+    ensureLoaded(ImageDataDirectoryType.EXCEPTION_TABLE);
+    return exceptionTable.get();
+  }
+
+  @Nullable
+  public ByteBuffer getExceptionTableBuffer() {
+    ensureLoaded(ImageDataDirectoryType.EXCEPTION_TABLE);
+    return exceptionTable.getBuffer();
   }
 
   public void setExceptionTable(byte[] exceptionTable) {
-    this.exceptionTable = exceptionTable;
+    markLoaded(ImageDataDirectoryType.EXCEPTION_TABLE);
+    this.exceptionTable.set(exceptionTable);
+  }
+
+  public void setExceptionTableBuffer(@Nullable ByteBuffer exceptionTable) {
+    markLoaded(ImageDataDirectoryType.EXCEPTION_TABLE);
+    this.exceptionTable.setBuffer(exceptionTable);
+  }
+
+  /**
+   * The decoded RUNTIME_FUNCTION entries of the exception table, for the
+   * machines that use the x64 layout.
+   */
+  public ExceptionTable getRuntimeFunctions() {
+    ensureLoaded(ImageDataDirectoryType.EXCEPTION_TABLE);
+    return runtimeFunctions;
+  }
+
+  public void setRuntimeFunctions(ExceptionTable runtimeFunctions) {
+    markLoaded(ImageDataDirectoryType.EXCEPTION_TABLE);
+    this.runtimeFunctions = runtimeFunctions;
   }
 
   public byte[] getCertificateTable() {
-    return certificateTable;
+    ensureLoaded(ImageDataDirectoryType.CERTIFICATE_TABLE);
+    return certificateTable.get();
+  }
+
+  @Nullable
+  public ByteBuffer getCertificateTableBuffer() {
+    ensureLoaded(ImageDataDirectoryType.CERTIFICATE_TABLE);
+    return certificateTable.getBuffer();
   }
 
   public void setCertificateTable(byte[] certificateTable) {
-    this.certificateTable = certificateTable;
+    markLoaded(ImageDataDirectoryType.CERTIFICATE_TABLE);
+    this.certificateTable.set(certificateTable);
+  }
+
+  public void setCertificateTableBuffer(@Nullable ByteBuffer certificateTable) {
+    markLoaded(ImageDataDirectoryType.CERTIFICATE_TABLE);
+    this.certificateTable.setBuffer(certificateTable);
+  }
+
+  /**
+   * Sets the certificate table as read from the file at <code>pointer</code>.
+   */
+  public void setCertificateTableBuffer(@Nullable ByteBuffer certificateTable, long pointer) {
+    markLoaded(ImageDataDirectoryType.CERTIFICATE_TABLE);
+    this.certificateTable.setBuffer(certificateTable, pointer);
+  }
+
+  /**
+   * The file offset the certificate table was read from, or -1 if it may
+   * have been changed.
+   */
+  public long getCertificateTablePointer() {
+    ensureLoaded(ImageDataDirectoryType.CERTIFICATE_TABLE);
+    return certificateTable.getPointer();
   }
 
   public byte[] getBaseRelocationTable() {
-    return baseRelocationTable;
+    ensureLoaded(ImageDataDirectoryType.BASE_RELOCATION_TABLE);
+    return baseRelocationTable.get();
+  }
+
+  @Nullable
+  public ByteBuffer getBaseRelocationTableBuffer() {
+    ensureLoaded(ImageDataDirectoryType.BASE_RELOCATION_TABLE);
+    return baseRelocationTable.getBuffer();
   }
 
   public void setBaseRelocationTable(byte[] baseRelocationTable) {
-    this.baseRelocationTable = baseRelocationTable;
+    markLoaded(ImageDataDirectoryType.BASE_RELOCATION_TABLE);
+    this.baseRelocationTable.set(baseRelocationTable);
+  }
+
+  public void setBaseRelocationTableBuffer(@Nullable ByteBuffer baseRelocationTable) {
+    markLoaded(ImageDataDirectoryType.BASE_RELOCATION_TABLE);
+    this.baseRelocationTable.setBuffer(baseRelocationTable);
+  }
+
+  /**
+   * The base relocation table decoded into blocks and entries.
+   */
+  public BaseRelocationTable getBaseRelocations() {
+    ensureLoaded(ImageDataDirectoryType.BASE_RELOCATION_TABLE);
+    return baseRelocations;
+  }
+
+  public void setBaseRelocations(BaseRelocationTable baseRelocations) {
+    markLoaded(ImageDataDirectoryType.BASE_RELOCATION_TABLE);
+    this.baseRelocations = baseRelocations;
   }
 
   public DebugDirectory getDebug() {
+    ensureLoaded(ImageDataDirectoryType.DEBUG);
     return debug;
   }
 
   public void setDebug(DebugDirectory debug) {
+    markLoaded(ImageDataDirectoryType.DEBUG);
     this.debug = debug;
   }
 
   public byte[] getArchitecture() {
-    return architecture;
+    ensureLoaded(ImageDataDirectoryType.ARCHITECTURE);
+    return architecture.get();
+  }
+
+  @Nullable
+  public ByteBuffer getArchitectureBuffer() {
+    ensureLoaded(ImageDataDirectoryType.ARCHITECTURE);
+    return architecture.getBuffer();
   }
 
   public void setArchitecture(byte[] architecture) {
-    this.architecture = architecture;
+    markLoaded(ImageDataDirectoryType.ARCHITECTURE);
+    this.architecture.set(architecture);
+  }
+
+  public void setArchitectureBuffer(@Nullable ByteBuffer architecture) {
+    markLoaded(ImageDataDirectoryType.ARCHITECTURE);
+    this.architecture.setBuffer(architecture);
   }
 
   public byte[] getGlobalPtr() {
-    return globalPtr;
+    ensureLoaded(ImageDataDirectoryType.GLOBAL_PTR);
+    return globalPtr.get();
+  }
+
+  @Nullable
+  public ByteBuffer getGlobalPtrBuffer() {
+    ensureLoaded(ImageDataDirectoryType.GLOBAL_PTR);
+    return globalPtr.getBuffer();
   }
 
   public void setGlobalPtr(byte[] globalPtr) {
-    this.globalPtr = globalPtr;
+    markLoaded(ImageDataDirectoryType.GLOBAL_PTR);
+    this.globalPtr.set(globalPtr);
+  }
+
+  public void setGlobalPtrBuffer(@Nullable ByteBuffer globalPtr) {
+    markLoaded(ImageDataDirectoryType.GLOBAL_PTR);
+    this.globalPtr.setBuffer(globalPtr);
   }
 
   public byte[] getTlsTable() {
-    return tlsTable;
+    ensureLoaded(ImageDataDirectoryType.TLS_TABLE);
+    return tlsTable.get();
+  }
+
+  @Nullable
+  public ByteBuffer getTlsTableBuffer() {
+    ensureLoaded(ImageDataDirectoryType.TLS_TABLE);
+    return tlsTable.getBuffer();
   }
 
   public void setTlsTable(byte[] tlsTable) {
-    this.tlsTable = tlsTable;
+    markLoaded(ImageDataDirectoryType.TLS_TABLE);
+    this.tlsTable.set(tlsTable);
+  }
+
+  public void setTlsTableBuffer(@Nullable ByteBuffer tlsTable) {
+    markLoaded(ImageDataDirectoryType.TLS_TABLE);
+    this.tlsTable.setBuffer(tlsTable);
   }
 
   public LoadConfigDirectory getLoadConfigTable() {
+    ensureLoaded(ImageDataDirectoryType.LOAD_CONFIG_TABLE);
     return loadConfigTable;
   }
 
   public void setLoadConfigTable(LoadConfigDirectory loadConfigTable) {
+    markLoaded(ImageDataDirectoryType.LOAD_CONFIG_TABLE);
     this.loadConfigTable = loadConfigTable;
   }
 
   public BoundImportDirectoryTable getBoundImports() {
+    ensureLoaded(ImageDataDirectoryType.BOUND_IMPORT);
     return boundImports;
   }
 
   public void setBoundImports(BoundImportDirectoryTable boundImports) {
+    markLoaded(ImageDataDirectoryType.BOUND_IMPORT);
     this.boundImports = boundImports;
   }
 
   public byte[] getIat() {
-    return iat;
+    ensureLoaded(ImageDataDirectoryType.IAT);
+    return iat.get();
+  }
+
+  @Nullable
+  public ByteBuffer getIatBuffer() {
+    ensureLoaded(ImageDataDirectoryType.IAT);
+    return iat.getBuffer();
   }
 
   public void setIat(byte[] iat) {
-    this.iat = iat;
+    markLoaded(ImageDataDirectoryType.IAT);
+    this.iat.set(iat);
+  }
+
+  public void setIatBuffer(@Nullable ByteBuffer iat) {
+    markLoaded(ImageDataDirectoryType.IAT);
+    this.iat.setBuffer(iat);
   }
 
   public byte[] getDelayImportDescriptor() {
-    return delayImportDescriptor;
+    ensureLoaded(ImageDataDirectoryType.DELAY_IMPORT_DESCRIPTOR);
+    return delayImportDescriptor.get();
+  }
+
+  @Nullable
+  public ByteBuffer getDelayImportDescriptorBuffer() {
+    ensureLoaded(ImageDataDirectoryType.DELAY_IMPORT_DESCRIPTOR);
+    return delayImportDescriptor.getBuffer();
   }
 
   public void setDelayImportDescriptor(byte[] delayImportDescriptor) {
-    this.delayImportDescriptor = delayImportDescriptor;
+    markLoaded(ImageDataDirectoryType.DELAY_IMPORT_DESCRIPTOR);
+    this.delayImportDescriptor.set(delayImportDescriptor);
+  }
+
+  public void setDelayImportDescriptorBuffer(@Nullable ByteBuffer delayImportDescriptor) {
+    markLoaded(ImageDataDirectoryType.DELAY_IMPORT_DESCRIPTOR);
+    this.delayImportDescriptor.setBuffer(delayImportDescriptor);
   }
 
   public byte[] getClrRuntimeHeader() {
-    return clrRuntimeHeader;
+    ensureLoaded(ImageDataDirectoryType.CLR_RUNTIME_HEADER);
+    return clrRuntimeHeader.get();
+  }
+
+  @Nullable
+  public ByteBuffer getClrRuntimeHeaderBuffer() {
+    ensureLoaded(ImageDataDirectoryType.CLR_RUNTIME_HEADER);
+    return clrRuntimeHeader.getBuffer();
   }
 
   public void setClrRuntimeHeader(byte[] clrRuntimeHeader) {
-    this.clrRuntimeHeader = clrRuntimeHeader;
+    markLoaded(ImageDataDirectoryType.CLR_RUNTIME_HEADER);
+    this.clrRuntimeHeader.set(clrRuntimeHeader);
+  }
+
+  public void setClrRuntimeHeaderBuffer(@Nullable ByteBuffer clrRuntimeHeader) {
+    markLoaded(ImageDataDirectoryType.CLR_RUNTIME_HEADER);
+    this.clrRuntimeHeader.setBuffer(clrRuntimeHeader);
   }
 
   public byte[] getReserved() {
-    return reserved;
+    ensureLoaded(ImageDataDirectoryType.RESERVED);
+    return reserved.get();
+  }
+
+  @Nullable
+  public ByteBuffer getReservedBuffer() {
+    ensureLoaded(ImageDataDirectoryType.RESERVED);
+    return reserved.getBuffer();
   }
 
   public void setReserved(byte[] reserved) {
-    this.reserved = reserved;
+    markLoaded(ImageDataDirectoryType.RESERVED);
+    this.reserved.set(reserved);
+  }
+
+  public void setReservedBuffer(@Nullable ByteBuffer reserved) {
+    markLoaded(ImageDataDirectoryType.RESERVED);
+    this.reserved.setBuffer(reserved);
   }
 
   public byte[] getDebugRawData() {
-    return debugRawData;
+    ensureLoaded(DEBUG_RAW_DATA);
+    return debugRawData.get();
+  }
+
+  @Nullable
+  public ByteBuffer getDebugRawDataBuffer() {
+    ensureLoaded(DEBUG_RAW_DATA);
+    return debugRawData.getBuffer();
   }
 
   public void setDebugRawData(byte[] debugRawData) {
-    this.debugRawData = debugRawData;
+    markLoaded(DEBUG_RAW_DATA);
+    this.debugRawData.set(debugRawData);
+  }
+
+  public void setDebugRawDataBuffer(@Nullable ByteBuffer debugRawData) {
+    markLoaded(DEBUG_RAW_DATA);
+    this.debugRawData.setBuffer(debugRawData);
   }
 
   public byte[] getTrailingData() {
-    return trailingData;
+    ensureLoaded(TRAILING_DATA);
+    return trailingData.get();
+  }
+
+  @Nullable
+  public ByteBuffer getTrailingDataBuffer() {
+    ensureLoaded(TRAILING_DATA);
+    return trailingData.getBuffer();
   }
 
   public void setTrailingData(byte[] trailingData) {
-    this.trailingData = trailingData;
+    markLoaded(TRAILING_DATA);
+    this.trailingData.set(trailingData);
+  }
+
+  public void setTrailingDataBuffer(@Nullable ByteBuffer trailingData) {
+    markLoaded(TRAILING_DATA);
+    this.trailingData.setBuffer(trailingData);
+  }
+
+  /**
+   * Sets the trailing data as read from the file at <code>pointer</code>.
+   */
+  public void setTrailingDataBuffer(@Nullable ByteBuffer trailingData, long pointer) {
+    markLoaded(TRAILING_DATA);
+    this.trailingData.setBuffer(trailingData, pointer);
+  }
+
+  /**
+   * The file offset the trailing data was read from, or -1 if it may have
+   * been changed.
+   */
+  public long getTrailingDataPointer() {
+    ensureLoaded(TRAILING_DATA);
+    return trailingData.getPointer();
   }
 
   public byte[] getDebugRawDataPreamble() {
+    ensureLoaded(PREAMBLES);
     return debugRawDataPreamble;
   }
 
   public void setDebugRawDataPreamble(byte[] debugRawDataPreamble) {
     this.debugRawDataPreamble = debugRawDataPreamble;
   }
+
+  /**
+   * Called by the getters before a directory, the debug raw data, the
+   * trailing data or the preambles are returned. Lazily parsed images read
+   * the data here on first access.
+   */
+  protected void ensureLoaded(int directory) {
+  }
+
+  /**
+   * Called by the setters, so that a value set explicitly is not replaced
+   * by a later lazy read.
+   */
+  protected void markLoaded(int directory) {
+  }
 }
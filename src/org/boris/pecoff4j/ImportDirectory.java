@@ -11,6 +11,7 @@ package org.boris.pecoff4j;
 
 import org.boris.pecoff4j.util.DataObject;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -18,41 +19,40 @@ import java.util.List;
 public class ImportDirectory extends DataObject {
   @NotNull
   private List<ImportDirectoryEntry> entries = new ArrayList();
-  @NotNull
-  private List<String> names = new ArrayList();
-  @NotNull
-  private List<ImportDirectoryTable> nameTables = new ArrayList();
-  @NotNull
-  private List<ImportDirectoryTable> addressTables = new ArrayList();
+  @Nullable
+  private ImportLookupTable lookupTable;
 
   public void add(ImportDirectoryEntry entry) {
     entries.add(entry);
   }
 
-  public void add(String name, ImportDirectoryTable names,
-                  ImportDirectoryTable addresses) {
-    this.names.add(name);
-    nameTables.add(names);
-    addressTables.add(addresses);
-  }
-
   public int size() {
     return entries.size();
   }
 
+  /**
+   * The name of the module imported by an entry, taken from the lookup
+   * table, or null if the imports were not resolved.
+   */
+  @Nullable
   public String getName(int index) {
-    return names.get(index);
+    return lookupTable == null ? null : lookupTable.getModuleName(index);
   }
 
-  public ImportDirectoryTable getNameTable(int index) {
-    return nameTables.get(index);
+  public ImportDirectoryEntry getEntry(int index) {
+    return entries.get(index);
   }
 
-  public ImportDirectoryTable getAddressTable(int index) {
-    return addressTables.get(index);
+  /**
+   * The names, hints and ordinals of the imported functions, or null if
+   * they were not resolved.
+   */
+  @Nullable
+  public ImportLookupTable getLookupTable() {
+    return lookupTable;
   }
 
-  public ImportDirectoryEntry getEntry(int index) {
-    return entries.get(index);
+  public void setLookupTable(@Nullable ImportLookupTable lookupTable) {
+    this.lookupTable = lookupTable;
   }
 }
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * The resolved imports of an image: the imported modules and, for each of
+ * them, the functions imported by name or by ordinal. Everything is kept
+ * in flat arrays indexed by module and by import, with all the names in
+ * one shared char pool, so no object is held per function.
+ */
+public class ImportLookupTable {
+  private static final int NO_NAME = -1;
+
+  private int moduleCount;
+  private int[] moduleNameOffsets = new int[4];
+  private int[] moduleNameLengths = new int[4];
+  private int[] addressTableRVAs = new int[4];
+  // Index of the first import of each module, plus the total at the end
+  private int[] firstImports = new int[5];
+
+  private int importCount;
+  private int[] hints = new int[16];
+  private int[] nameOffsets = new int[16];
+  private int[] nameLengths = new int[16];
+
+  private char[] chars = new char[256];
+  private int charCount;
+
+  /**
+   * Starts the imports of the next module.
+   */
+  public void addModule(@Nullable String name, int addressTableRVA) {
+    if (moduleCount == addressTableRVAs.length) {
+      int size = moduleCount * 2;
+      moduleNameOffsets = Arrays.copyOf(moduleNameOffsets, size);
+      moduleNameLengths = Arrays.copyOf(moduleNameLengths, size);
+      addressTableRVAs = Arrays.copyOf(addressTableRVAs, size);
+      firstImports = Arrays.copyOf(firstImports, size + 1);
+    }
+    moduleNameOffsets[moduleCount] = name == null ? NO_NAME : addChars(name);
+    moduleNameLengths[moduleCount] = name == null ? 0 : name.length();
+    addressTableRVAs[moduleCount] = addressTableRVA;
+    moduleCount++;
+    firstImports[moduleCount] = importCount;
+  }
+
+  /**
+   * Adds a function imported by name to the last module.
+   */
+  public void addImport(int hint, @NotNull String name) {
+    add(hint, addChars(name), name.length());
+  }
+
+  /**
+   * Adds a function imported by ordinal to the last module.
+   */
+  public void addOrdinal(int ordinal) {
+    add(ordinal, NO_NAME, 0);
+  }
+
+  private void add(int hint, int nameOffset, int nameLength) {
+    if (moduleCount == 0)
+      throw new IllegalStateException("No module to add the import to");
+    if (importCount == hints.length) {
+      int size = importCount * 2;
+      hints = Arrays.copyOf(hints, size);
+      nameOffsets = Arrays.copyOf(nameOffsets, size);
+      nameLengths = Arrays.copyOf(nameLengths, size);
+    }
+    hints[importCount] = hint;
+    nameOffsets[importCount] = nameOffset;
+    nameLengths[importCount] = nameLength;
+    importCount++;
+    firstImports[moduleCount] = importCount;
+  }
+
+  private int addChars(@NotNull String s) {
+    int offset = charCount;
+    if (charCount + s.length() > chars.length)
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + s.length()));
+    s.getChars(0, s.length(), chars, charCount);
+    charCount += s.length();
+    return offset;
+  }
+
+  public int getModuleCount() {
+    return moduleCount;
+  }
+
+  @Nullable
+  public String getModuleName(int module) {
+    if (moduleNameOffsets[module] == NO_NAME)
+      return null;
+    return new String(chars, moduleNameOffsets[module], moduleNameLengths[module]);
+  }
+
+  /**
+   * Compares a module name ignoring case, as the loader does, without
+   * building a string.
+   */
+  public boolean isModuleName(int module, @NotNull String name) {
+    int offset = moduleNameOffsets[module];
+    int length = moduleNameLengths[module];
+    if (offset == NO_NAME || length != name.length())
+      return false;
+    for (int i = 0; i < length; i++) {
+      char c = chars[offset + i];
+      char n = name.charAt(i);
+      if (c != n && Character.toUpperCase(c) != Character.toUpperCase(n))
+        return false;
+    }
+    return true;
+  }
+
+  public int getAddressTableRVA(int module) {
+    return addressTableRVAs[module];
+  }
+
+  /**
+   * Index of the first import of a module.
+   */
+  public int getFirstImport(int module) {
+    return firstImports[module];
+  }
+
+  public int getImportCount(int module) {
+    return firstImports[module + 1] - firstImports[module];
+  }
+
+  public int getImportCount() {
+    return importCount;
+  }
+
+  public boolean isOrdinal(int index) {
+    return nameOffsets[index] == NO_NAME;
+  }
+
+  /**
+   * The ordinal of a function imported by ordinal, or the hint into the
+   * export name table of one imported by name.
+   */
+  public int getHint(int index) {
+    return hints[index];
+  }
+
+  public int getOrdinal(int index) {
+    return isOrdinal(index) ? hints[index] : -1;
+  }
+
+  @Nullable
+  public String getName(int index) {
+    if (isOrdinal(index))
+      return null;
+    return new String(chars, nameOffsets[index], nameLengths[index]);
+  }
+
+  /**
+   * Compares the name of a function without building a string.
+   */
+  public boolean isName(int index, @NotNull String name) {
+    int offset = nameOffsets[index];
+    int length = nameLengths[index];
+    if (offset == NO_NAME || length != name.length())
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (chars[offset + i] != name.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the index of a function imported by name from a module, or -1.
+   */
+  public int indexOf(@NotNull String module, @NotNull String name) {
+    for (int m = 0; m < moduleCount; m++) {
+      if (!isModuleName(m, module))
+        continue;
+      for (int i = firstImports[m]; i < firstImports[m + 1]; i++) {
+        if (isName(i, name))
+          return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -1,7 +1,7 @@
 /*******************************************************************************
  * This program and the accompanying materials
  * are made available under the terms of the Common Public License v1.0
- * which accompanies this distribution, and is available at 
+ * which accompanies this distribution, and is available at
  * http://www.eclipse.org/legal/cpl-v10.html
  *
  * Contributors:
@@ -9,31 +9,199 @@
  *******************************************************************************/
 package org.boris.pecoff4j;
 
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Translates between relative virtual addresses and file offsets. Lookups
+ * are binary searches over the sections sorted by virtual address (and by
+ * raw data pointer for the reverse direction).
+ */
 public class RVAConverter {
+  /**
+   * Returned for addresses that have no counterpart.
+   */
+  public static final int UNMAPPED = -1;
+
+  // Sorted by virtual address
   private int[] virtualAddress;
   private int[] pointerToRawData;
+  private int[] virtualSize;
+  private int[] sizeOfRawData;
+  private int[] sectionIndex;
+  // Indexes into the arrays above, sorted by raw data pointer
+  private int[] byPointer;
+  private int firstRawDataPointer = Integer.MAX_VALUE;
 
+  /**
+   * Creates a converter from addresses already sorted by virtual address.
+   * Section sizes are not known, so each section is taken to reach up to
+   * the next one.
+   */
   public RVAConverter(int[] virtualAddress, int[] pointerToRawData) {
     this.virtualAddress = virtualAddress;
     this.pointerToRawData = pointerToRawData;
+    sortByPointer();
+  }
+
+  /**
+   * Creates a converter from section headers in section table order.
+   */
+  public RVAConverter(@NotNull SectionHeader[] headers) {
+    int n = headers.length;
+    long[] keys = new long[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = (long) headers[i].getVirtualAddress() << 32 | i;
+    }
+    Arrays.sort(keys);
+
+    virtualAddress = new int[n];
+    pointerToRawData = new int[n];
+    virtualSize = new int[n];
+    sizeOfRawData = new int[n];
+    sectionIndex = new int[n];
+    for (int i = 0; i < n; i++) {
+      SectionHeader sh = headers[(int) keys[i]];
+      virtualAddress[i] = sh.getVirtualAddress();
+      pointerToRawData[i] = sh.getPointerToRawData();
+      virtualSize[i] = sh.getVirtualSize();
+      sizeOfRawData[i] = sh.getSizeOfRawData();
+      sectionIndex[i] = (int) keys[i];
+    }
+    sortByPointer();
   }
 
+  private void sortByPointer() {
+    int n = pointerToRawData.length;
+    long[] keys = new long[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = (long) pointerToRawData[i] << 32 | i;
+      if (sizeOfRawData == null || sizeOfRawData[i] > 0)
+        firstRawDataPointer = Math.min(firstRawDataPointer, pointerToRawData[i]);
+    }
+    Arrays.sort(keys);
+    byPointer = new int[n];
+    for (int i = 0; i < n; i++) {
+      byPointer[i] = (int) keys[i];
+    }
+  }
+
+  /**
+   * Converts relative to the nearest section at or below the address,
+   * without checking it lies inside that section. Addresses below the
+   * first section are returned unchanged.
+   */
   public int convertVirtualAddressToRawDataPointer(int virtualAddress) {
-    for (int i = 0; i < this.virtualAddress.length; i++) {
-      if (virtualAddress < this.virtualAddress[i]) {
-        if (i > 0) {
-          int prd = pointerToRawData[i - 1];
-          int vad = this.virtualAddress[i - 1];
-          return prd + virtualAddress - vad;
-        } else {
-          return virtualAddress;
-        }
+    int i = findByVirtualAddress(virtualAddress);
+    if (i < 0)
+      return virtualAddress;
+    return pointerToRawData[i] + virtualAddress - this.virtualAddress[i];
+  }
+
+  /**
+   * Returns the file offset of an address, or {@link #UNMAPPED} if it is
+   * outside every section or in the part of a section that is not backed
+   * by the file. Addresses below the first section are in the headers and
+   * are returned unchanged.
+   */
+  public int rvaToRawPointer(int rva) {
+    int i = findSection(rva);
+    if (i == UNMAPPED)
+      return rva >= 0 && (virtualAddress.length == 0 || rva < virtualAddress[0]) ? rva : UNMAPPED;
+    int offset = rva - virtualAddress[i];
+    if (sizeOfRawData != null && offset >= sizeOfRawData[i])
+      return UNMAPPED;
+    return pointerToRawData[i] + offset;
+  }
+
+  /**
+   * Returns the address a file offset is loaded at, or {@link #UNMAPPED}
+   * if it is not part of any section. Offsets below the first section are
+   * in the headers and are returned unchanged.
+   */
+  public int rawPointerToRva(int pointer) {
+    if (pointer >= 0 && pointer < firstRawDataPointer)
+      return pointer;
+    int lo = 0;
+    int hi = byPointer.length - 1;
+    int found = -1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (pointerToRawData[byPointer[mid]] <= pointer) {
+        found = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
       }
     }
 
-    // Hit the last item
-    int prd = this.pointerToRawData[this.virtualAddress.length - 1];
-    int vad = this.virtualAddress[this.virtualAddress.length - 1];
-    return prd + virtualAddress - vad;
+    if (sizeOfRawData == null) {
+      // Without sizes each section reaches up to the next one
+      if (found < 0)
+        return UNMAPPED;
+      int i = byPointer[found];
+      return virtualAddress[i] + pointer - pointerToRawData[i];
+    }
+
+    // Sections without raw data may share a pointer with the one before, look past them
+    for (int j = found; j >= 0; j--) {
+      int i = byPointer[j];
+      if (pointerToRawData[i] + sizeOfRawData[i] <= pointer) {
+        if (sizeOfRawData[i] > 0)
+          break;
+        continue;
+      }
+      int offset = pointer - pointerToRawData[i];
+      int size = virtualSize[i] > 0 ? virtualSize[i] : sizeOfRawData[i];
+      return offset < size ? virtualAddress[i] + offset : UNMAPPED;
+    }
+    return UNMAPPED;
+  }
+
+  /**
+   * Returns the index in the section table of the section holding an
+   * address, or {@link #UNMAPPED}.
+   */
+  public int sectionIndexForRva(int rva) {
+    int i = findSection(rva);
+    if (i == UNMAPPED)
+      return UNMAPPED;
+    return sectionIndex == null ? i : sectionIndex[i];
+  }
+
+  /**
+   * Position (in virtual address order) of the section holding the
+   * address, or UNMAPPED.
+   */
+  private int findSection(int rva) {
+    int i = findByVirtualAddress(rva);
+    if (i < 0)
+      return UNMAPPED;
+    if (virtualSize != null) {
+      int size = virtualSize[i] > 0 ? virtualSize[i] : sizeOfRawData[i];
+      if (rva - virtualAddress[i] >= size)
+        return UNMAPPED;
+    }
+    return i;
+  }
+
+  /**
+   * Position of the last section starting at or below the address, or -1.
+   */
+  private int findByVirtualAddress(int rva) {
+    int lo = 0;
+    int hi = virtualAddress.length - 1;
+    int found = -1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (virtualAddress[mid] <= rva) {
+        found = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return found;
   }
 }
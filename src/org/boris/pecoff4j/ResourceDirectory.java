@@ -12,13 +12,25 @@ package org.boris.pecoff4j;
 import org.boris.pecoff4j.util.DataObject;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 public class ResourceDirectory extends DataObject {
   private ResourceDirectoryTable table;
   @NotNull
-  private List<ResourceEntry> entries = new ArrayList();
+  private ResourceEntry[] entries;
+  private int size;
+
+  public ResourceDirectory() {
+    this(4);
+  }
+
+  /**
+   * @param capacity the number of entries expected, as given by the
+   *                 directory table
+   */
+  public ResourceDirectory(int capacity) {
+    entries = new ResourceEntry[Math.max(capacity, 1)];
+  }
 
   public ResourceDirectoryTable getTable() {
     return table;
@@ -29,14 +41,18 @@ public class ResourceDirectory extends DataObject {
   }
 
   public void add(ResourceEntry entry) {
-    this.entries.add(entry);
+    if (size == entries.length)
+      entries = Arrays.copyOf(entries, size * 2);
+    entries[size++] = entry;
   }
 
   public ResourceEntry get(int index) {
-    return entries.get(index);
+    if (index >= size)
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    return entries[index];
   }
 
   public int size() {
-    return entries.size();
+    return size;
   }
 }
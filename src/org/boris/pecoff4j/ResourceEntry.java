@@ -9,10 +9,24 @@
  *******************************************************************************/
 package org.boris.pecoff4j;
 
+import org.boris.pecoff4j.util.DataObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An entry of a resource directory: either a subdirectory or, on the last
+ * level, a data entry. The data of a parsed entry is a view into the
+ * resource section and is only copied when {@link #getData()} is called.
+ */
 public class ResourceEntry {
   private int id;
   private String name;
-  private byte[] data;
+  @NotNull
+  private final DataObject data = new DataObject();
+  private int dataRVA;
+  private int size;
   private ResourceDirectory directory;
   private int codePage;
   private int reserved;
@@ -34,11 +48,47 @@ public class ResourceEntry {
   }
 
   public byte[] getData() {
-    return data;
+    return data.get();
+  }
+
+  /**
+   * Returns a read-only view of the data without copying it.
+   */
+  @Nullable
+  public ByteBuffer getDataBuffer() {
+    return data.getBuffer();
   }
 
   public void setData(byte[] data) {
-    this.data = data;
+    this.data.set(data);
+    this.size = data == null ? 0 : data.length;
+  }
+
+  public void setDataBuffer(@Nullable ByteBuffer data) {
+    this.data.setBuffer(data);
+    this.size = data == null ? 0 : data.remaining();
+  }
+
+  /**
+   * The RVA of the data as given by the data entry.
+   */
+  public int getDataRVA() {
+    return dataRVA;
+  }
+
+  public void setDataRVA(int dataRVA) {
+    this.dataRVA = dataRVA;
+  }
+
+  /**
+   * The size of the data as given by the data entry.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  public void setSize(int size) {
+    this.size = size;
   }
 
   public ResourceDirectory getDirectory() {
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j;
+
+import org.boris.pecoff4j.util.IntMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up the resources of a resource directory by type, name and
+ * language. The tree is walked once; numeric ids are then found through int
+ * keyed maps and named entries through hash maps. Only the data entries of
+ * the usual three levels are indexed.
+ * <p/>
+ * Queries taking int ids accept -1 as a wildcard, and return the entries in
+ * the order of the tree. The index is not updated when the directory
+ * changes.
+ */
+public class ResourceIndex {
+  private static final ResourceEntry[] NONE = new ResourceEntry[0];
+
+  private final Level<Level<Leaves>> types = new Level<Level<Leaves>>();
+
+  public ResourceIndex(@NotNull ResourceDirectory rd) {
+    for (int i = 0; i < rd.size(); i++) {
+      ResourceEntry type = rd.get(i);
+      ResourceDirectory names = type.getDirectory();
+      if (names == null)
+        continue;
+      Level<Leaves> tl = types.get(type);
+      if (tl == null)
+        tl = types.add(type, new Level<Leaves>());
+      for (int j = 0; j < names.size(); j++) {
+        ResourceEntry name = names.get(j);
+        ResourceDirectory languages = name.getDirectory();
+        if (languages == null)
+          continue;
+        Leaves nl = tl.get(name);
+        if (nl == null)
+          nl = tl.add(name, new Leaves());
+        for (int k = 0; k < languages.size(); k++) {
+          ResourceEntry lang = languages.get(k);
+          if (lang.getDirectory() == null)
+            nl.add(lang);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the resource with the given type, name and language, or null.
+   */
+  @Nullable
+  public ResourceEntry findResource(int type, int name, int language) {
+    Leaves nl = leaves(types.get(type), name);
+    return nl == null ? null : nl.languages.get(language);
+  }
+
+  @Nullable
+  public ResourceEntry findResource(int type, @NotNull String name, int language) {
+    Level<Leaves> tl = types.get(type);
+    Leaves nl = tl == null ? null : tl.names.get(name);
+    return nl == null ? null : nl.languages.get(language);
+  }
+
+  @NotNull
+  public ResourceEntry[] findResources(int type) {
+    return findResources(type, -1, -1);
+  }
+
+  @NotNull
+  public ResourceEntry[] findResources(int type, int name) {
+    return findResources(type, name, -1);
+  }
+
+  /**
+   * Returns the resources matching the given ids, any of which may be -1 to
+   * match everything on that level.
+   */
+  @NotNull
+  public ResourceEntry[] findResources(int type, int name, int language) {
+    if (type != -1 && name != -1) {
+      Leaves nl = leaves(types.get(type), name);
+      return nl == null ? NONE : nl.find(language);
+    }
+    List<ResourceEntry> entries = new ArrayList<ResourceEntry>();
+    if (type != -1) {
+      collect(types.get(type), name, language, entries);
+    } else {
+      for (Level<Leaves> tl : types.all) {
+        collect(tl, name, language, entries);
+      }
+    }
+    return entries.toArray(new ResourceEntry[entries.size()]);
+  }
+
+  /**
+   * Returns all the languages of a named resource.
+   */
+  @NotNull
+  public ResourceEntry[] findResources(int type, @NotNull String name) {
+    Level<Leaves> tl = types.get(type);
+    Leaves nl = tl == null ? null : tl.names.get(name);
+    return nl == null ? NONE : nl.find(-1);
+  }
+
+  /**
+   * Returns all the resources of a named type.
+   */
+  @NotNull
+  public ResourceEntry[] findResources(@NotNull String type) {
+    List<ResourceEntry> entries = new ArrayList<ResourceEntry>();
+    collect(types.names.get(type), -1, -1, entries);
+    return entries.toArray(new ResourceEntry[entries.size()]);
+  }
+
+  @Nullable
+  private static Leaves leaves(@Nullable Level<Leaves> tl, int name) {
+    return tl == null ? null : tl.get(name);
+  }
+
+  private static void collect(@Nullable Level<Leaves> tl, int name, int language,
+                              @NotNull List<ResourceEntry> entries) {
+    if (tl == null)
+      return;
+    if (name != -1) {
+      Leaves nl = tl.get(name);
+      if (nl != null)
+        nl.collect(language, entries);
+      return;
+    }
+    for (Leaves nl : tl.all) {
+      nl.collect(language, entries);
+    }
+  }
+
+  /**
+   * The entries of one directory level, by id and by name.
+   */
+  private static class Level<T> {
+    final IntMap<T> ids = new IntMap<T>();
+    final Map<String, T> names = new HashMap<String, T>();
+    final List<T> all = new ArrayList<T>();
+
+    @Nullable
+    T get(int id) {
+      return ids.get(id);
+    }
+
+    @Nullable
+    T get(@NotNull ResourceEntry e) {
+      return e.getName() != null ? names.get(e.getName()) : ids.get(e.getId());
+    }
+
+    @NotNull
+    T add(@NotNull ResourceEntry e, @NotNull T value) {
+      if (e.getName() != null)
+        names.put(e.getName(), value);
+      else
+        ids.put(e.getId(), value);
+      all.add(value);
+      return value;
+    }
+  }
+
+  /**
+   * The data entries of one resource, by language.
+   */
+  private static class Leaves {
+    final IntMap<ResourceEntry> languages = new IntMap<ResourceEntry>(2);
+    final List<ResourceEntry> all = new ArrayList<ResourceEntry>(1);
+
+    void add(@NotNull ResourceEntry e) {
+      if (e.getName() == null && !languages.containsKey(e.getId()))
+        languages.put(e.getId(), e);
+      all.add(e);
+    }
+
+    @NotNull
+    ResourceEntry[] find(int language) {
+      if (language == -1)
+        return all.toArray(new ResourceEntry[all.size()]);
+      ResourceEntry e = languages.get(language);
+      return e == null ? NONE : new ResourceEntry[]{e};
+    }
+
+    void collect(int language, @NotNull List<ResourceEntry> entries) {
+      if (language == -1) {
+        entries.addAll(all);
+      } else {
+        ResourceEntry e = languages.get(language);
+        if (e != null)
+          entries.add(e);
+      }
+    }
+  }
+}
@@ -9,8 +9,15 @@
  *******************************************************************************/
 package org.boris.pecoff4j;
 
+import org.boris.pecoff4j.util.DataObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
 public class SectionData {
-  private byte[] data;
+  @NotNull
+  private final DataObject data = new DataObject();
   private byte[] preamble;
 
   public byte[] getPreamble() {
@@ -22,10 +29,34 @@ public class SectionData {
   }
 
   public byte[] getData() {
-    return data;
+    return data.get();
   }
 
   public void setData(byte[] data) {
-    this.data = data;
+    this.data.set(data);
+  }
+
+  @Nullable
+  public ByteBuffer getDataBuffer() {
+    return data.getBuffer();
+  }
+
+  public void setDataBuffer(@Nullable ByteBuffer data) {
+    this.data.setBuffer(data);
+  }
+
+  /**
+   * Sets the data as read from the file at <code>pointer</code>.
+   */
+  public void setDataBuffer(@Nullable ByteBuffer data, long pointer) {
+    this.data.setBuffer(data, pointer);
+  }
+
+  /**
+   * The file offset the data was read from, or -1 if it was not read from
+   * a file or may have been changed.
+   */
+  public long getDataPointer() {
+    return data.getPointer();
   }
 }
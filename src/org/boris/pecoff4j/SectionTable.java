@@ -15,8 +15,9 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SectionTable {
   // Known section names
@@ -29,11 +30,16 @@ public class SectionTable {
   @NotNull
   private List<SectionHeader> headers = new ArrayList<SectionHeader>();
   @NotNull
-  private IntMap sections = new IntMap();
+  private IntMap<SectionData> sections = new IntMap<SectionData>();
   private RVAConverter rvaConverter;
+  // Sorted views and name lookup, built on first use and dropped by add().
+  // Headers are not watched, so they should not be moved or renamed later
+  @Nullable
+  private Index cachedIndex;
 
   public void add(SectionHeader header) {
     headers.add(header);
+    cachedIndex = null;
   }
 
   public int getNumberOfSections() {
@@ -46,10 +52,12 @@ public class SectionTable {
 
   @Nullable
   public SectionData getSection(int index) {
-    return (SectionData) sections.get(index);
+    ensureLoaded(index);
+    return sections.get(index);
   }
 
   public void put(int index, SectionData data) {
+    markLoaded(index);
     sections.put(index, data);
   }
 
@@ -76,47 +84,137 @@ public class SectionTable {
 
   @Nullable
   public SectionHeader getLastSectionRawPointerSorted() {
-    SectionHeader[] headers = getHeadersPointerSorted();
-    if (headers == null || headers.length == 0)
+    if (headers.isEmpty())
       return null;
-    return headers[headers.length - 1];
+    return getHeaderByVirtualAddressOrder(headers.size() - 1);
   }
 
+  /**
+   * Returns the headers sorted by virtual address.
+   */
   public SectionHeader[] getHeadersPointerSorted() {
-    List<SectionHeader> headers = new ArrayList();
-    for (int i = 0; i < getNumberOfSections(); i++) {
-      headers.add(getHeader(i));
+    int[] order = index().byVirtualAddress;
+    SectionHeader[] sorted = new SectionHeader[order.length];
+    for (int i = 0; i < order.length; i++) {
+      sorted[i] = headers.get(order[i]);
     }
+    return sorted;
+  }
 
-    SectionHeader[] sorted = headers.toArray(new SectionHeader[0]);
-    Arrays.sort(sorted, new Comparator<SectionHeader>() {
-      public int compare(@NotNull SectionHeader o1, @NotNull SectionHeader o2) {
-        return o1.getVirtualAddress() - o2.getVirtualAddress();
-      }
-    });
+  /**
+   * Returns the header at <code>position</code> when the sections are
+   * sorted by virtual address.
+   */
+  public SectionHeader getHeaderByVirtualAddressOrder(int position) {
+    return headers.get(index().byVirtualAddress[position]);
+  }
 
-    return sorted;
+  /**
+   * Returns the header at <code>position</code> when the sections are
+   * sorted by pointer to raw data.
+   */
+  public SectionHeader getHeaderByRawPointerOrder(int position) {
+    return headers.get(index().byRawPointer[position]);
   }
 
-  @Nullable
-  public SectionHeader findHeader(String name) {
-    for (SectionHeader sh : headers) {
-      if (sh.getName().equals(name))
-        return sh;
+  /**
+   * Returns the index of the first section with the given name, or -1.
+   */
+  public int indexOf(String name) {
+    Integer index = index().byName.get(name);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * Returns the index of the section whose virtual extent holds the
+   * address, or -1.
+   */
+  public int indexOfVirtualAddress(int rva) {
+    int[] order = index().byVirtualAddress;
+    int lo = 0;
+    int hi = order.length - 1;
+    int found = -1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (headers.get(order[mid]).getVirtualAddress() <= rva) {
+        found = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
     }
+    if (found < 0)
+      return -1;
+    SectionHeader sh = headers.get(order[found]);
+    if (rva - sh.getVirtualAddress() >= sh.getVirtualSize())
+      return -1;
+    return order[found];
+  }
 
-    return null;
+  @Nullable
+  public SectionHeader findHeader(String name) {
+    int index = indexOf(name);
+    return index < 0 ? null : headers.get(index);
   }
 
   @Nullable
   public SectionData findSection(String name) {
-    for (int i = 0; i < headers.size(); i++) {
-      SectionHeader sh = headers.get(i);
-      if (sh.getName().equals(name))
-        return (SectionData) sections.get(i);
-    }
+    int index = indexOf(name);
+    return index < 0 ? null : getSection(index);
+  }
+
+  @NotNull
+  private Index index() {
+    if (cachedIndex == null)
+      cachedIndex = new Index(headers);
+    return cachedIndex;
+  }
+
+  /**
+   * Called before the data of a section is returned. Lazily parsed images
+   * read the section here on first access.
+   */
+  protected void ensureLoaded(int index) {
+  }
 
-    return null;
+  /**
+   * Called when section data is put explicitly, so that it is not replaced
+   * by a later lazy read.
+   */
+  protected void markLoaded(int index) {
   }
 
+  private static class Index {
+    @NotNull
+    final int[] byVirtualAddress;
+    @NotNull
+    final int[] byRawPointer;
+    @NotNull
+    final Map<String, Integer> byName = new HashMap<String, Integer>();
+
+    Index(@NotNull List<SectionHeader> headers) {
+      int n = headers.size();
+      long[] va = new long[n];
+      long[] prd = new long[n];
+      for (int i = 0; i < n; i++) {
+        SectionHeader sh = headers.get(i);
+        va[i] = (long) sh.getVirtualAddress() << 32 | i;
+        prd[i] = (long) sh.getPointerToRawData() << 32 | i;
+        if (!byName.containsKey(sh.getName()))
+          byName.put(sh.getName(), i);
+      }
+      byVirtualAddress = sortedIndexes(va);
+      byRawPointer = sortedIndexes(prd);
+    }
+
+    @NotNull
+    private static int[] sortedIndexes(@NotNull long[] keys) {
+      Arrays.sort(keys);
+      int[] indexes = new int[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        indexes[i] = (int) keys[i];
+      }
+      return indexes;
+    }
+  }
 }
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j;
+
+/**
+ * The UNWIND_INFO of an x64 function, which describes how its prolog
+ * changes the stack. Each unwind code is kept as the raw 16 bit slot.
+ */
+public class UnwindInfo {
+  public static final int UNW_FLAG_EHANDLER = 0x1;
+  public static final int UNW_FLAG_UHANDLER = 0x2;
+  public static final int UNW_FLAG_CHAININFO = 0x4;
+
+  private int version;
+  private int flags;
+  private int sizeOfProlog;
+  private int frameRegister;
+  private int frameOffset;
+  private short[] unwindCodes;
+  private int exceptionHandler;
+  private int chainedBeginAddress;
+  private int chainedEndAddress;
+  private int chainedUnwindInfoAddress;
+
+  public int getVersion() {
+    return version;
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+  public int getSizeOfProlog() {
+    return sizeOfProlog;
+  }
+
+  public int getFrameRegister() {
+    return frameRegister;
+  }
+
+  /**
+   * The scaled offset of the frame pointer, in units of 16 bytes.
+   */
+  public int getFrameOffset() {
+    return frameOffset;
+  }
+
+  public short[] getUnwindCodes() {
+    return unwindCodes;
+  }
+
+  /**
+   * The RVA of the language specific handler, if one of the handler flags is
+   * set.
+   */
+  public int getExceptionHandler() {
+    return exceptionHandler;
+  }
+
+  public boolean isChained() {
+    return (flags & UNW_FLAG_CHAININFO) != 0;
+  }
+
+  public int getChainedBeginAddress() {
+    return chainedBeginAddress;
+  }
+
+  public int getChainedEndAddress() {
+    return chainedEndAddress;
+  }
+
+  public int getChainedUnwindInfoAddress() {
+    return chainedUnwindInfoAddress;
+  }
+
+  public void setVersion(int version) {
+    this.version = version;
+  }
+
+  public void setFlags(int flags) {
+    this.flags = flags;
+  }
+
+  public void setSizeOfProlog(int sizeOfProlog) {
+    this.sizeOfProlog = sizeOfProlog;
+  }
+
+  public void setFrameRegister(int frameRegister) {
+    this.frameRegister = frameRegister;
+  }
+
+  public void setFrameOffset(int frameOffset) {
+    this.frameOffset = frameOffset;
+  }
+
+  public void setUnwindCodes(short[] unwindCodes) {
+    this.unwindCodes = unwindCodes;
+  }
+
+  public void setExceptionHandler(int exceptionHandler) {
+    this.exceptionHandler = exceptionHandler;
+  }
+
+  public void setChainedBeginAddress(int chainedBeginAddress) {
+    this.chainedBeginAddress = chainedBeginAddress;
+  }
+
+  public void setChainedEndAddress(int chainedEndAddress) {
+    this.chainedEndAddress = chainedEndAddress;
+  }
+
+  public void setChainedUnwindInfoAddress(int chainedUnwindInfoAddress) {
+    this.chainedUnwindInfoAddress = chainedUnwindInfoAddress;
+  }
+}
@@ -0,0 +1,19 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.constant;
+
+/**
+ * The base relocation types.
+ */
+public interface BaseRelocationType {
+  public static final int IMAGE_REL_BASED_ABSOLUTE = 0;
+  public static final int IMAGE_REL_BASED_HIGH = 1;
+  public static final int IMAGE_REL_BASED_LOW = 2;
+  public static final int IMAGE_REL_BASED_HIGHLOW = 3;
+  public static final int IMAGE_REL_BASED_HIGHADJ = 4;
+  public static final int IMAGE_REL_BASED_DIR64 = 10;
+}
@@ -9,23 +9,31 @@
  *******************************************************************************/
 package org.boris.pecoff4j.io;
 
+import org.boris.pecoff4j.util.StringPool;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class ByteArrayDataReader implements IDataReader {
   private byte[] data;
   private int position;
   private int offset;
   private int length;
+  private ByteBuffer buffer;
+  @Nullable
+  private StringPool pool;
 
   public ByteArrayDataReader(byte[] data) {
     this.data = data;
+    this.buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
   }
 
   public ByteArrayDataReader(byte[] data, int offset, int length) {
-    this.data = data;
+    this(data);
     this.offset = offset;
     this.length = length;
   }
@@ -50,6 +58,13 @@ public class ByteArrayDataReader implements IDataReader {
     position += b.length;
   }
 
+  @NotNull
+  public ByteBuffer readBuffer(int size) throws IOException {
+    ByteBuffer b = ByteBuffer.wrap(data, offset + position, size).slice();
+    position += size;
+    return b.asReadOnlyBuffer();
+  }
+
   public int readByte() throws IOException {
     if (offset + position >= data.length)
       return -1;
@@ -66,21 +81,21 @@ public class ByteArrayDataReader implements IDataReader {
 
   @NotNull
   public String readUtf(int size) throws IOException {
-    byte[] b = new byte[size];
-    read(b);
-    return new String(b);
+    int start = offset + position;
+    if (start + size > data.length)
+      throw new EOFException("Unexpected end of data");
+    int end = Strings.indexOfNul(buffer, start, start + size);
+    position += size;
+    return intern(Strings.decode(buffer, start, (end < 0 ? start + size : end) - start));
   }
 
   public String readUtf() throws IOException {
-    StringBuilder sb = new StringBuilder();
-    while (true) {
-      char c = (char) readByte();
-      if (c == 0) {
-        break;
-      }
-      sb.append(c);
-    }
-    return sb.toString();
+    int start = offset + position;
+    int end = Strings.indexOfNul(buffer, start, data.length);
+    if (end < 0)
+      throw new EOFException("Unexpected end of data");
+    position += end - start + 1;
+    return intern(Strings.decode(buffer, start, end - start));
   }
 
   public int readWord() throws IOException {
@@ -93,22 +108,30 @@ public class ByteArrayDataReader implements IDataReader {
 
   @Nullable
   public String readUnicode() throws IOException {
-    StringBuilder sb = new StringBuilder();
-    char c = 0;
-    while ((c = (char) readWord()) != 0) {
-      sb.append(c);
-    }
-    if (sb.length() == 0) {
+    int start = offset + position;
+    int end = Strings.indexOfNul16(buffer, start, data.length);
+    if (end < 0)
+      throw new EOFException("Unexpected end of data");
+    position += end - start + 2;
+    if (end == start) {
       return null;
     }
-    return sb.toString();
+    return intern(Strings.decode16(buffer, start, (end - start) / 2));
   }
 
   public String readUnicode(int size) throws IOException {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < size; i++) {
-      sb.append((char) readWord());
-    }
-    return sb.toString();
+    int start = offset + position;
+    if (start + size * 2 > data.length)
+      throw new EOFException("Unexpected end of data");
+    position += size * 2;
+    return intern(Strings.decode16(buffer, start, size));
+  }
+
+  public void setStringPool(@Nullable StringPool pool) {
+    this.pool = pool;
+  }
+
+  private String intern(String s) {
+    return pool == null ? s : pool.intern(s);
   }
 }
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.util.StringPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads little-endian data directly from a {@link ByteBuffer}. The file
+ * constructor maps the whole file read-only, so every read is a plain memory
+ * access and {@link #jumpTo(int)} may move in both directions.
+ */
+public class ByteBufferDataReader implements IRandomAccessDataReader {
+  @NotNull
+  private final ByteBuffer buffer;
+  @Nullable
+  private StringPool pool;
+
+  public ByteBufferDataReader(@NotNull ByteBuffer buffer) {
+    this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public ByteBufferDataReader(@NotNull File file) throws IOException {
+    this(map(file));
+  }
+
+  @NotNull
+  public static MappedByteBuffer map(@NotNull File file) throws IOException {
+    FileInputStream fis = new FileInputStream(file);
+    try {
+      FileChannel fc = fis.getChannel();
+      long size = fc.size();
+      if (size > Integer.MAX_VALUE)
+        throw new IOException("File is too large to be mapped (" + size + "): " + file);
+      // The mapping stays valid once the channel is closed
+      return fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      fis.close();
+    }
+  }
+
+  public int getLength() {
+    return buffer.limit();
+  }
+
+  public int readByte() throws IOException {
+    if (!buffer.hasRemaining())
+      return -1;
+    return buffer.get() & 0xff;
+  }
+
+  public int readWord() throws IOException {
+    ensureAvailable(2);
+    return buffer.getShort() & 0xffff;
+  }
+
+  public int readDoubleWord() throws IOException {
+    ensureAvailable(4);
+    return buffer.getInt();
+  }
+
+  public long readLong() throws IOException {
+    ensureAvailable(8);
+    return buffer.getLong();
+  }
+
+  public int getPosition() {
+    return buffer.position();
+  }
+
+  public void jumpTo(int location) throws IOException {
+    if (location < 0 || location > buffer.limit())
+      throw new EOFException("Location is outside of the buffer (" + location + ")");
+    buffer.position(location);
+  }
+
+  public void skipBytes(int numBytes) throws IOException {
+    jumpTo(buffer.position() + numBytes);
+  }
+
+  public void close() throws IOException {
+  }
+
+  public void read(@NotNull byte[] b) throws IOException {
+    ensureAvailable(b.length);
+    buffer.get(b);
+  }
+
+  @NotNull
+  public ByteBuffer readBuffer(int size) throws IOException {
+    ensureAvailable(size);
+    ByteBuffer b = buffer.slice();
+    b.limit(size);
+    buffer.position(buffer.position() + size);
+    return b.asReadOnlyBuffer();
+  }
+
+  @NotNull
+  public String readUtf(int size) throws IOException {
+    ensureAvailable(size);
+    int start = buffer.position();
+    int end = Strings.indexOfNul(buffer, start, start + size);
+    String s = Strings.decode(buffer, start, (end < 0 ? start + size : end) - start);
+    buffer.position(start + size);
+    return intern(s);
+  }
+
+  public String readUtf() throws IOException {
+    int start = buffer.position();
+    int end = Strings.indexOfNul(buffer, start, buffer.limit());
+    if (end < 0) {
+      buffer.position(buffer.limit());
+      throw new EOFException("Unexpected end of buffer");
+    }
+    buffer.position(end + 1);
+    return intern(Strings.decode(buffer, start, end - start));
+  }
+
+  @Nullable
+  public String readUnicode() throws IOException {
+    int start = buffer.position();
+    int end = Strings.indexOfNul16(buffer, start, buffer.limit());
+    if (end < 0) {
+      buffer.position(buffer.limit());
+      throw new EOFException("Unexpected end of buffer");
+    }
+    buffer.position(end + 2);
+    if (end == start) {
+      return null;
+    }
+    return intern(Strings.decode16(buffer, start, (end - start) / 2));
+  }
+
+  @NotNull
+  public String readUnicode(int size) throws IOException {
+    ensureAvailable(size * 2);
+    int start = buffer.position();
+    buffer.position(start + size * 2);
+    return intern(Strings.decode16(buffer, start, size));
+  }
+
+  public void setStringPool(@Nullable StringPool pool) {
+    this.pool = pool;
+  }
+
+  private String intern(String s) {
+    return pool == null ? s : pool.intern(s);
+  }
+
+  private void ensureAvailable(int size) throws EOFException {
+    if (buffer.remaining() < size)
+      throw new EOFException("Unexpected end of buffer");
+  }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes to a file channel through a direct buffer. When it knows the file
+ * the image was parsed from, unchanged blocks of that file are copied with
+ * {@link FileChannel#transferTo}, which lets the operating system move the
+ * bytes without passing them through the heap.
+ */
+public class ChannelDataWriter implements IDataWriter {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  @NotNull
+  private final FileChannel out;
+  @Nullable
+  private final FileChannel source;
+  @NotNull
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private int position;
+
+  public ChannelDataWriter(@NotNull FileChannel out) {
+    this(out, null);
+  }
+
+  /**
+   * @param source the file the written image was parsed from
+   */
+  public ChannelDataWriter(@NotNull FileChannel out, @Nullable FileChannel source) {
+    this.out = out;
+    this.source = source;
+  }
+
+  public boolean hasSource() {
+    return source != null;
+  }
+
+  /**
+   * Copies <code>count</code> bytes from <code>pointer</code> on in the
+   * source file.
+   */
+  public void transferFrom(long pointer, int count) throws IOException {
+    if (source == null)
+      throw new IllegalStateException("No source file to transfer from");
+    flush();
+    long done = 0;
+    while (done < count) {
+      long n = source.transferTo(pointer + done, count - done, out);
+      if (n <= 0)
+        throw new EOFException("Source file ends at " + (pointer + done));
+      done += n;
+    }
+    position += count;
+  }
+
+  private void ensure(int size) throws IOException {
+    if (buffer.remaining() < size)
+      flush();
+  }
+
+  public void writeByte(int b) throws IOException {
+    ensure(1);
+    buffer.put((byte) b);
+    position++;
+  }
+
+  public void writeByte(int b, int count) throws IOException {
+    position += count;
+    while (count > 0) {
+      ensure(1);
+      int n = Math.min(count, buffer.remaining());
+      for (int i = 0; i < n; i++) {
+        buffer.put((byte) b);
+      }
+      count -= n;
+    }
+  }
+
+  public void writeWord(int w) throws IOException {
+    ensure(2);
+    buffer.putShort((short) w);
+    position += 2;
+  }
+
+  public void writeDoubleWord(int dw) throws IOException {
+    ensure(4);
+    buffer.putInt(dw);
+    position += 4;
+  }
+
+  public void writeLong(long l) throws IOException {
+    ensure(8);
+    buffer.putLong(l);
+    position += 8;
+  }
+
+  public void writeBytes(@NotNull byte[] b) throws IOException {
+    writeBytes(ByteBuffer.wrap(b));
+  }
+
+  public void writeBytes(@NotNull ByteBuffer b) throws IOException {
+    int length = b.remaining();
+    if (length <= buffer.remaining()) {
+      buffer.put(b.duplicate());
+    } else {
+      // Large blocks go to the channel directly
+      flush();
+      ByteBuffer src = b.duplicate();
+      while (src.hasRemaining()) {
+        out.write(src);
+      }
+    }
+    position += length;
+  }
+
+  public void writeUtf(@NotNull String s) throws IOException {
+    writeBytes(s.getBytes(Strings.ISO_8859_1));
+    writeByte(0);
+  }
+
+  public void writeUtf(@NotNull String s, int len) throws IOException {
+    byte[] b = s.getBytes(Strings.ISO_8859_1);
+    int n = Math.min(b.length, len);
+    writeBytes(ByteBuffer.wrap(b, 0, n));
+    writeByte(0, len - n);
+  }
+
+  public int getPosition() {
+    return position;
+  }
+
+  public void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Flushes the buffer and closes the output channel. The source is left
+   * open.
+   */
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+}
@@ -1,7 +1,7 @@
 /*******************************************************************************
  * This program and the accompanying materials
  * are made available under the terms of the Common Public License v1.0
- * which accompanies this distribution, and is available at 
+ * which accompanies this distribution, and is available at
  * http://www.eclipse.org/legal/cpl-v10.html
  *
  * Contributors:
@@ -9,48 +9,75 @@
  *******************************************************************************/
 package org.boris.pecoff4j.io;
 
+import org.boris.pecoff4j.util.StringPool;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
+/**
+ * Reads little-endian data from a byte array or a stream. Words are decoded
+ * from an internal {@link ByteBuffer} window which is refilled from the stream
+ * in blocks. Over a byte array or a buffer the window is the data itself and
+ * the reader may jump backwards.
+ */
 public class DataReader implements IDataReader {
+  private static final int BUFFER_SIZE = 8192;
+
+  @Nullable
   private InputStream dis;
+  @NotNull
+  private ByteBuffer window;
   private int position = 0;
+  @Nullable
+  private StringPool pool;
 
   public DataReader(@NotNull final byte[] buffer) {
-    this.dis = new BufferedInputStream(new ByteArrayInputStream(buffer));
+    this(buffer, 0, buffer.length);
   }
 
   public DataReader(@NotNull final byte[] buffer, final int offset, final int length) {
-    this.dis = new BufferedInputStream(new ByteArrayInputStream(buffer, offset, length));
+    this.window = ByteBuffer.wrap(buffer, offset, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public DataReader(@NotNull final ByteBuffer buffer) {
+    this.window = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
   }
 
   public DataReader(InputStream is) {
-    if (is instanceof BufferedInputStream) {
-      this.dis = is;
-    } else {
-      this.dis = new BufferedInputStream(is);
-    }
+    this.dis = is;
+    this.window = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    this.window.flip();
   }
 
   public int readByte() throws IOException {
+    if (!window.hasRemaining() && !fill(1))
+      return -1;
     position += 1;
-    return dis.read();
+    return window.get() & 0xff;
   }
 
   public int readWord() throws IOException {
+    if (window.remaining() < 2 && !fill(2))
+      return readByte() | readByte() << 8;
     position += 2;
-    return dis.read() | dis.read() << 8;
+    return window.getShort() & 0xffff;
   }
 
   public long readLong() throws IOException {
-    return (readDoubleWord() & 0x00000000ffffffffl) | ((long) readDoubleWord() << 32l);
+    if (window.remaining() < 8 && !fill(8))
+      return (readDoubleWord() & 0x00000000ffffffffl) | ((long) readDoubleWord() << 32l);
+    position += 8;
+    return window.getLong();
   }
 
   public int readDoubleWord() throws IOException {
+    if (window.remaining() < 4 && !fill(4))
+      return readByte() | readByte() << 8 | readByte() << 16 | readByte() << 24;
     position += 4;
-    return dis.read() | dis.read() << 8 | dis.read() << 16 | dis.read() << 24;
+    return window.getInt();
   }
 
   public int getPosition() {
@@ -58,50 +85,117 @@ public class DataReader implements IDataReader {
   }
 
   public void jumpTo(int location) throws IOException {
-    if (location < position)
-      throw new IOException("DataReader does not support scanning backwards (" +location + ")");
-    if (location > position)
+    if (location < position) {
+      if (dis != null)
+        throw new IOException("DataReader does not support scanning backwards (" + location + ")");
+      window.position(location);
+      position = location;
+    } else if (location > position) {
       skipBytes(location - position);
+    }
   }
 
   public void skipBytes(int numBytes) throws IOException {
-    position += numBytes;
-    for (int i = 0; i < numBytes; i++) {
-      if (-1 == dis.read()) throw new EOFException("Unexpected stream end");
+    int fromWindow = Math.min(numBytes, window.remaining());
+    window.position(window.position() + fromWindow);
+    position += fromWindow;
+    int left = numBytes - fromWindow;
+    if (left == 0)
+      return;
+    if (dis == null)
+      throw new EOFException("Unexpected stream end");
+
+    while (left > 0) {
+      long skipped = dis.skip(left);
+      if (skipped <= 0) {
+        // skip() may legitimately return 0, read() tells us whether this is the end
+        if (dis.read() == -1)
+          throw new EOFException("Unexpected stream end");
+        skipped = 1;
+      }
+      left -= skipped;
+      position += skipped;
     }
   }
 
   public void close() throws IOException {
-    dis.close();
+    if (dis != null)
+      dis.close();
   }
 
   public void read(@NotNull byte[] b) throws IOException {
-    position += b.length;
+    int off = Math.min(b.length, window.remaining());
+    window.get(b, 0, off);
+    position += off;
+    if (off == b.length)
+      return;
+    if (dis == null)
+      throw new EOFException("Expected to read bytes from the stream");
 
-    int off = 0;
-    int read;
-    while ((read = dis.read(b, off, b.length - off)) > 0) {
-      off += read;
-      if (off >= b.length) return;
+    if (b.length - off >= BUFFER_SIZE) {
+      // Large blocks go straight into the destination
+      int read;
+      while (off < b.length && (read = dis.read(b, off, b.length - off)) > 0) {
+        off += read;
+        position += read;
+      }
+      if (off < b.length)
+        throw new EOFException("Expected to read bytes from the stream");
+    } else {
+      int rest = b.length - off;
+      if (!fill(rest))
+        throw new EOFException("Expected to read bytes from the stream");
+      window.get(b, off, rest);
+      position += rest;
     }
-    throw new EOFException("Expected to read bytes from the stream");
   }
 
   @NotNull
-  public String readUtf(final int size) throws IOException {
-    position += size;
-    byte b[] = new byte[size];
+  public ByteBuffer readBuffer(int size) throws IOException {
+    if (dis == null) {
+      if (window.remaining() < size)
+        throw new EOFException("Expected to read bytes from the stream");
+      ByteBuffer b = window.slice();
+      b.limit(size);
+      window.position(window.position() + size);
+      position += size;
+      return b.asReadOnlyBuffer();
+    }
+    byte[] b = new byte[size];
     read(b);
-    int i = 0;
-    for (; i < b.length; i++) {
-      if (b[i] == 0)
-        break;
+    return ByteBuffer.wrap(b).asReadOnlyBuffer();
+  }
+
+  @NotNull
+  public String readUtf(final int size) throws IOException {
+    if (!available(size)) {
+      byte b[] = new byte[size];
+      read(b);
+      ByteBuffer bb = ByteBuffer.wrap(b);
+      int end = Strings.indexOfNul(bb, 0, size);
+      return intern(Strings.decode(bb, 0, end < 0 ? size : end));
     }
-    return new String(b, 0, i);
+    int start = window.position();
+    int end = Strings.indexOfNul(window, start, start + size);
+    String s = Strings.decode(window, start, (end < 0 ? start + size : end) - start);
+    window.position(start + size);
+    position += size;
+    return intern(s);
   }
 
   public String readUtf() throws IOException {
-    //TODO: use encoding
+    do {
+      int start = window.position();
+      int end = Strings.indexOfNul(window, start, window.limit());
+      if (end >= 0) {
+        String s = Strings.decode(window, start, end - start);
+        window.position(end + 1);
+        position += end - start + 1;
+        return intern(s);
+      }
+    } while (available(window.remaining() + 1));
+
+    // Longer than the window, or not terminated
     StringBuilder sb = new StringBuilder();
     int c;
     while ((c = readByte()) != 0) {
@@ -109,30 +203,86 @@ public class DataReader implements IDataReader {
         throw new IOException("Unexpected end of stream");
       sb.append((char) c);
     }
-    return sb.toString();
+    return intern(sb.toString());
   }
 
   @Nullable
   public String readUnicode() throws IOException {
-    //TODO: use encoding
+    do {
+      int start = window.position();
+      int end = Strings.indexOfNul16(window, start, window.limit());
+      if (end >= 0) {
+        window.position(end + 2);
+        position += end - start + 2;
+        if (end == start) {
+          return null;
+        }
+        return intern(Strings.decode16(window, start, (end - start) / 2));
+      }
+    } while (available(window.remaining() + 2));
+
+    // Longer than the window, or not terminated
     StringBuilder sb = new StringBuilder();
-    char c;
-    while ((c = (char) readWord()) != 0) {
+    while (true) {
+      if (!available(2))
+        throw new EOFException("Unexpected end of stream");
+      char c = (char) readWord();
+      if (c == 0)
+        break;
       sb.append(c);
     }
-    if (sb.length() == 0) {
-      return null;
-    }
-    return sb.toString();
+    return intern(sb.toString());
   }
 
   @NotNull
   public String readUnicode(final int size) throws IOException {
-    //TODO: use encoding
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < size; i++) {
-      sb.append((char) readWord());
+    if (!available(size * 2)) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < size; i++) {
+        sb.append((char) readWord());
+      }
+      return intern(sb.toString());
+    }
+    int start = window.position();
+    window.position(start + size * 2);
+    position += size * 2;
+    return intern(Strings.decode16(window, start, size));
+  }
+
+  public void setStringPool(@Nullable StringPool pool) {
+    this.pool = pool;
+  }
+
+  private String intern(String s) {
+    return pool == null ? s : pool.intern(s);
+  }
+
+  /**
+   * Returns true if the window holds <code>size</code> bytes, topping it up
+   * from the stream if it can.
+   */
+  private boolean available(int size) throws IOException {
+    return window.remaining() >= size || size <= window.capacity() && fill(size);
+  }
+
+  /**
+   * Tops the window up from the stream until it holds at least
+   * <code>size</code> bytes. Returns false at the end of the data.
+   */
+  private boolean fill(int size) throws IOException {
+    if (dis == null)
+      return false;
+    window.compact();
+    try {
+      while (window.position() < size) {
+        int read = dis.read(window.array(), window.arrayOffset() + window.position(), window.remaining());
+        if (read < 0)
+          break;
+        window.position(window.position() + read);
+      }
+    } finally {
+      window.flip();
     }
-    return sb.toString();
+    return window.remaining() >= size;
   }
 }
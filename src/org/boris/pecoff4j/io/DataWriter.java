@@ -12,6 +12,7 @@ package org.boris.pecoff4j.io;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 public class DataWriter implements IDataWriter {
   private BufferedOutputStream out;
@@ -42,6 +43,23 @@ public class DataWriter implements IDataWriter {
     position += b.length;
   }
 
+  public void writeBytes(@NotNull ByteBuffer b) throws IOException {
+    int length = b.remaining();
+    if (b.hasArray()) {
+      out.write(b.array(), b.arrayOffset() + b.position(), length);
+    } else {
+      // Read-only and mapped buffers have no accessible array
+      ByteBuffer src = b.duplicate();
+      byte[] chunk = new byte[Math.min(length, 8192)];
+      while (src.hasRemaining()) {
+        int count = Math.min(chunk.length, src.remaining());
+        src.get(chunk, 0, count);
+        out.write(chunk, 0, count);
+      }
+    }
+    position += length;
+  }
+
   public void writeDoubleWord(int dw) throws IOException {
     out.write(dw & 0xff);
     out.write(dw >> 8 & 0xff);
@@ -74,7 +92,7 @@ public class DataWriter implements IDataWriter {
   }
 
   public void writeUtf(@NotNull String s, int len) throws IOException {
-    byte[] b = s.getBytes(); // FIXME sort out charset
+    byte[] b = s.getBytes(Strings.ISO_8859_1);
     int i = 0;
     for (; i < b.length && i < len; i++) {
       out.write(b[i]);
@@ -86,7 +104,7 @@ public class DataWriter implements IDataWriter {
   }
 
   public void writeUtf(@NotNull String s) throws IOException {
-    byte[] b = s.getBytes(); // FIXME sort out charset
+    byte[] b = s.getBytes(Strings.ISO_8859_1);
     out.write(b);
     out.write(0);
     position += b.length + 1;
@@ -9,9 +9,11 @@
  *******************************************************************************/
 package org.boris.pecoff4j.io;
 
+import org.boris.pecoff4j.util.StringPool;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface IDataReader {
   public abstract int readByte() throws IOException;
@@ -32,12 +34,30 @@ public interface IDataReader {
 
   public abstract void read(byte[] b) throws IOException;
 
+  /**
+   * Reads the next <code>size</code> bytes as a read-only buffer. Readers over
+   * memory return a view without copying.
+   */
+  public abstract ByteBuffer readBuffer(int size) throws IOException;
+
+  /**
+   * Reads a fixed size ISO-8859-1 field, cut at the first zero byte.
+   */
   public abstract String readUtf(int size) throws IOException;
 
+  /**
+   * Reads a zero terminated ISO-8859-1 string.
+   */
   public abstract String readUtf() throws IOException;
 
   @Nullable
   public abstract String readUnicode() throws IOException;
 
   public abstract String readUnicode(int size) throws IOException;
+
+  /**
+   * Strings read from now on are shared through the pool, or not at all
+   * when it is null.
+   */
+  public abstract void setStringPool(@Nullable StringPool pool);
 }
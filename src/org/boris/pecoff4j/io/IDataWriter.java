@@ -10,6 +10,7 @@
 package org.boris.pecoff4j.io;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface IDataWriter {
   void writeByte(int b) throws IOException;
@@ -24,6 +25,8 @@ public interface IDataWriter {
 
   void writeBytes(byte[] b) throws IOException;
 
+  void writeBytes(ByteBuffer b) throws IOException;
+
   void writeUtf(String s) throws IOException;
 
   void writeUtf(String s, int len) throws IOException;
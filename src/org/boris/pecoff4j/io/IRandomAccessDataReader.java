@@ -0,0 +1,15 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+/**
+ * A data reader over a source of known length that can jump to any location,
+ * including locations before the current position.
+ */
+public interface IRandomAccessDataReader extends IDataReader {
+  public abstract int getLength();
+}
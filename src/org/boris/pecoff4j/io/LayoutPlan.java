@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * The sections and image data directories of a file sorted by file
+ * position, built once from the section table and the optional header.
+ * {@link #next(int)} gives the same answers as
+ * {@link PEParser#findNextEntry(PE, int)} with a binary search instead of a
+ * scan over every structure.
+ */
+public class LayoutPlan {
+  private static final int SECTION = 0;
+  private static final int DIRECTORY = 1;
+
+  @NotNull
+  private final PE pe;
+  // Pointer in the high half, then the kind and the index, so that ties
+  // are broken the same way as findNextEntry does
+  @NotNull
+  private final long[] entries;
+
+  public LayoutPlan(@NotNull PE pe) {
+    this.pe = pe;
+    SectionTable st = pe.getSectionTable();
+    OptionalHeader oh = pe.getOptionalHeader();
+    int ns = pe.getCoffHeader().getNumberOfSections();
+    int dc = oh.getDataDirectoryCount();
+    long[] entries = new long[ns + dc];
+    int count = 0;
+    for (int i = 0; i < ns; i++) {
+      SectionHeader sh = st.getHeader(i);
+      if (sh.getSizeOfRawData() > 0 && sh.getPointerToRawData() > 0)
+        entries[count++] = key(sh.getPointerToRawData(), SECTION, i);
+    }
+    for (int i = 0; i < dc; i++) {
+      ImageDataDirectory idd = oh.getDataDirectory(i);
+      if (idd.getSize() > 0) {
+        int prd = PEParser.getImageDataPointer(pe, i, idd);
+        if (prd > 0)
+          entries[count++] = key(prd, DIRECTORY, i);
+      }
+    }
+    this.entries = Arrays.copyOf(entries, count);
+    Arrays.sort(this.entries);
+  }
+
+  private static long key(int pointer, int kind, int index) {
+    return (long) pointer << 32 | kind << 16 | index;
+  }
+
+  /**
+   * Returns the first structure at or after <code>pos</code>, or null if
+   * there are none left.
+   */
+  @Nullable
+  public DataEntry next(int pos) {
+    DataEntry de = new DataEntry();
+    int i = Arrays.binarySearch(entries, (long) pos << 32);
+    if (i < 0)
+      i = -i - 1;
+    if (i < entries.length) {
+      long key = entries[i];
+      de.pointer = (int) (key >>> 32);
+      de.index = (int) key & 0xffff;
+      de.isSection = ((int) key >>> 16 & 0xffff) == SECTION;
+    }
+
+    // The debug raw data is only known once the debug directory is read
+    DebugDirectory dd = pe.getImageData().getDebug();
+    if (dd != null) {
+      int prd = dd.getPointerToRawData();
+      if (prd >= pos && (de.pointer == 0 || prd < de.pointer)) {
+        de.pointer = prd;
+        de.index = -1;
+        de.isDebugRawData = true;
+        de.isSection = false;
+        de.baseAddress = prd;
+      }
+    }
+
+    if (de.pointer == 0)
+      return null;
+
+    return de;
+  }
+}
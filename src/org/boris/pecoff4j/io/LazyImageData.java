@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.*;
+import org.boris.pecoff4j.constant.ImageDataDirectoryType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Image data of a lazily parsed PE. Every directory is read from the
+ * underlying reader the first time one of its getters is called. The
+ * preambles and the trailing data depend on the layout of the whole file,
+ * which is only worked out (without reading any data) when one of them is
+ * asked for.
+ */
+class LazyImageData extends ImageData {
+  private static final int DIRECTORY_COUNT = 16;
+  private static final int DEBUG_RAW_DATA_KEY = DIRECTORY_COUNT;
+  private static final int SECTION_KEY = DIRECTORY_COUNT + 1;
+
+  @NotNull
+  private final PE pe;
+  @NotNull
+  private final IRandomAccessDataReader dr;
+  private final int headersEnd;
+  // One bit for each directory and pseudo directory not read yet
+  private int pending = -1;
+
+  // Gaps in front of each entry found by the layout walk, see key()
+  @Nullable
+  private int[] preambleStart;
+  @Nullable
+  private int[] preambleEnd;
+  private int layoutEnd;
+
+  LazyImageData(@NotNull PE pe, @NotNull IRandomAccessDataReader dr, int headersEnd) {
+    this.pe = pe;
+    this.dr = dr;
+    this.headersEnd = headersEnd;
+  }
+
+  @Override
+  protected void ensureLoaded(int directory) {
+    int bit = bit(directory);
+    if ((pending & bit) == 0)
+      return;
+    pending &= ~bit;
+    try {
+      load(directory);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read image data " + directory, e);
+    }
+  }
+
+  @Override
+  protected void markLoaded(int directory) {
+    pending &= ~bit(directory);
+  }
+
+  private static int bit(int directory) {
+    return 1 << (directory >= 0 ? directory : DIRECTORY_COUNT - 1 - directory);
+  }
+
+  private void load(int directory) throws IOException {
+    switch (directory) {
+      case DEBUG_RAW_DATA:
+        loadDebugRawData();
+        break;
+      case TRAILING_DATA:
+        layout();
+        if (layoutEnd < dr.getLength()) {
+          dr.jumpTo(layoutEnd);
+          setTrailingDataBuffer(dr.readBuffer(dr.getLength() - layoutEnd), layoutEnd);
+        }
+        break;
+      case PREAMBLES:
+        layout();
+        for (int i = 0; i < DIRECTORY_COUNT; i++) {
+          byte[] pa = readPreamble(i);
+          if (pa != null)
+            put(i, pa);
+        }
+        byte[] pa = readPreamble(DEBUG_RAW_DATA_KEY);
+        if (pa != null)
+          setDebugRawDataPreamble(pa);
+        break;
+      default:
+        loadDirectory(directory);
+        break;
+    }
+  }
+
+  private void loadDirectory(int index) throws IOException {
+    OptionalHeader oh = pe.getOptionalHeader();
+    if (index >= oh.getDataDirectoryCount())
+      return;
+    ImageDataDirectory idd = oh.getDataDirectory(index);
+    int prd = PEParser.getImageDataPointer(pe, index, idd);
+    if (idd.getSize() <= 0 || prd <= 0 || prd > dr.getLength() - idd.getSize())
+      return;
+    dr.jumpTo(prd);
+    DataEntry de = new DataEntry(index, 0);
+    de.baseAddress = idd.getVirtualAddress();
+    PEParser.readImageData(pe, de, dr);
+    if (index == ImageDataDirectoryType.IMPORT_TABLE)
+      PEParser.readImportLookupTable(pe, new RVADataReader(pe, dr));
+    else if (index == ImageDataDirectoryType.EXPORT_TABLE)
+      PEParser.readExportLookupTable(pe, new RVADataReader(pe, dr));
+  }
+
+  private void loadDebugRawData() throws IOException {
+    DebugDirectory dd = getDebug();
+    if (dd == null)
+      return;
+    int prd = dd.getPointerToRawData();
+    int size = dd.getSizeOfData();
+    if (size > 0 && prd > 0 && prd <= dr.getLength() - size) {
+      dr.jumpTo(prd);
+      setDebugRawDataBuffer(dr.readBuffer(size));
+    }
+  }
+
+  /**
+   * Returns the non-zero gap in front of a section, as the eager parser
+   * would have stored it.
+   */
+  @Nullable
+  byte[] readSectionPreamble(int index) throws IOException {
+    layout();
+    return readPreamble(SECTION_KEY + index);
+  }
+
+  @Nullable
+  private byte[] readPreamble(int key) throws IOException {
+    int start = preambleStart[key];
+    int end = preambleEnd[key];
+    if (end <= start || end > dr.getLength())
+      return null;
+    dr.jumpTo(start);
+    return PEParser.readPreambleData(end, dr);
+  }
+
+  /**
+   * Walks the entries in file order the same way PEParser.read does, only
+   * recording where each gap and the trailing data start.
+   */
+  private void layout() {
+    if (preambleStart != null)
+      return;
+    SectionTable st = pe.getSectionTable();
+    int count = SECTION_KEY + st.getNumberOfSections();
+    int[] start = new int[count];
+    int[] end = new int[count];
+
+    int pos = headersEnd;
+    LayoutPlan plan = new LayoutPlan(pe);
+    DataEntry entry;
+    while ((entry = plan.next(pos)) != null) {
+      int key;
+      int size;
+      if (entry.isSection) {
+        key = SECTION_KEY + entry.index;
+        size = st.getHeader(entry.index).getSizeOfRawData();
+      } else if (entry.isDebugRawData) {
+        key = DEBUG_RAW_DATA_KEY;
+        size = getDebug().getSizeOfData();
+      } else {
+        key = entry.index;
+        size = pe.getOptionalHeader().getDataDirectory(entry.index).getSize();
+      }
+      if (entry.pointer > pos) {
+        start[key] = pos;
+        end[key] = entry.pointer;
+      }
+      // An empty entry would otherwise be found again
+      pos = entry.pointer + Math.max(size, 1);
+    }
+
+    preambleStart = start;
+    preambleEnd = end;
+    layoutEnd = pos;
+  }
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.ImageData;
+import org.boris.pecoff4j.PE;
+import org.boris.pecoff4j.SectionData;
+import org.boris.pecoff4j.SectionHeader;
+import org.boris.pecoff4j.SectionTable;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Section table of a lazily parsed PE. The headers are read up front, the
+ * raw data of a section is sliced from the reader on first access.
+ */
+class LazySectionTable extends SectionTable {
+  @NotNull
+  private final PE pe;
+  @NotNull
+  private final IRandomAccessDataReader dr;
+  @NotNull
+  private final BitSet loaded = new BitSet();
+
+  LazySectionTable(@NotNull PE pe, @NotNull IRandomAccessDataReader dr) {
+    this.pe = pe;
+    this.dr = dr;
+  }
+
+  @Override
+  protected void ensureLoaded(int index) {
+    if (loaded.get(index) || index < 0 || index >= getNumberOfSections())
+      return;
+    loaded.set(index);
+    try {
+      load(index);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read section " + index, e);
+    }
+  }
+
+  @Override
+  protected void markLoaded(int index) {
+    loaded.set(index);
+  }
+
+  private void load(int index) throws IOException {
+    SectionHeader sh = getHeader(index);
+    int prd = sh.getPointerToRawData();
+    int size = sh.getSizeOfRawData();
+    if (size <= 0 || prd < 0 || prd > dr.getLength() - size)
+      return;
+
+    SectionData sd = new SectionData();
+    ImageData id = pe.getImageData();
+    if (id instanceof LazyImageData)
+      sd.setPreamble(((LazyImageData) id).readSectionPreamble(index));
+    dr.jumpTo(prd);
+    sd.setDataBuffer(dr.readBuffer(size), prd);
+    put(index, sd);
+  }
+}
@@ -11,24 +11,108 @@ package org.boris.pecoff4j.io;
 
 import org.boris.pecoff4j.*;
 import org.boris.pecoff4j.constant.ImageDataDirectoryType;
+import org.boris.pecoff4j.util.PEChecksum;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class PEAssembler {
   public static byte[] toBytes(@NotNull PE pe) throws IOException {
+    return toBytes(pe, false);
+  }
+
+  /**
+   * @param updateCheckSum whether the checksum in the optional header is
+   *                       computed for the assembled image, and set on
+   *                       <code>pe</code> too
+   */
+  public static byte[] toBytes(@NotNull PE pe, boolean updateCheckSum) throws IOException {
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
     write(pe, bos);
-    return bos.toByteArray();
+    byte[] b = bos.toByteArray();
+    if (updateCheckSum)
+      pe.getOptionalHeader().setCheckSum(PEChecksum.update(b));
+    return b;
   }
 
   public static void write(@NotNull PE pe, String filename) throws IOException {
-    write(pe, new FileOutputStream(filename));
+    write(pe, new File(filename));
   }
 
   public static void write(@NotNull PE pe, File file) throws IOException {
-    write(pe, new FileOutputStream(file));
+    write(pe, file, false);
+  }
+
+  /**
+   * Writes an image to a file, overwriting it in place. The image is
+   * assembled in memory before the file is opened, so an image parsed from
+   * <code>file</code>, whose data are views of the mapped file, can be
+   * written back to it. Links, permissions and ownership of the file are
+   * kept.
+   * <p/>
+   * Once an image has been written back to the file it was parsed from, its
+   * views show the new contents of the file, or fail if the file got
+   * shorter, so the file should be parsed again. On Windows a file that is
+   * still mapped cannot be made shorter: writing a smaller image back to it
+   * fails after the new image has been written, leaving the old trailing
+   * bytes in place.
+   *
+   * @param updateCheckSum whether the checksum in the optional header is
+   *                       computed for the written image, and set on
+   *                       <code>pe</code> too
+   */
+  public static void write(@NotNull PE pe, @NotNull File file, boolean updateCheckSum)
+          throws IOException {
+    byte[] b = toBytes(pe, updateCheckSum);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.write(b);
+      if (raf.length() != b.length)
+        raf.setLength(b.length);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Writes an image that was parsed from <code>source</code>. Sections,
+   * the certificate table and the trailing data that have not been changed
+   * since they were read are copied from the source file by the operating
+   * system, the rest is written from the model. The output must not be the
+   * source file.
+   */
+  public static void write(@NotNull PE pe, @NotNull File source, @NotNull File output)
+          throws IOException {
+    write(pe, source, output, false);
+  }
+
+  /**
+   * Rewrites an image as {@link #write(PE, File, File)} does, optionally
+   * updating its checksum.
+   */
+  public static void write(@NotNull PE pe, @NotNull File source, @NotNull File output,
+                           boolean updateCheckSum) throws IOException {
+    if (source.getCanonicalFile().equals(output.getCanonicalFile()))
+      throw new IOException("Cannot rewrite a file onto itself: " + source);
+    FileInputStream in = new FileInputStream(source);
+    try {
+      // Opened for reading as well, to compute the checksum
+      RandomAccessFile out = new RandomAccessFile(output, "rw");
+      try {
+        out.setLength(0);
+        ChannelDataWriter dw = new ChannelDataWriter(out.getChannel(), in.getChannel());
+        write(pe, dw);
+        dw.flush();
+        if (updateCheckSum)
+          pe.getOptionalHeader().setCheckSum(PEChecksum.update(out.getChannel(), null));
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
   }
 
   public static void write(@NotNull PE pe, OutputStream os) throws IOException {
@@ -46,8 +130,9 @@ public class PEAssembler {
     writeSectionHeaders(pe, dw);
 
     // Now write out the rest
+    LayoutPlan plan = new LayoutPlan(pe);
     DataEntry entry = null;
-    while ((entry = PEParser.findNextEntry(pe, dw.getPosition())) != null) {
+    while ((entry = plan.next(dw.getPosition())) != null) {
       if (entry.isSection) {
         writeSection(pe, entry, dw);
       } else if (entry.isDebugRawData) {
@@ -58,9 +143,22 @@ public class PEAssembler {
     }
 
     // Dump out any trailing data - TODO find out what this is
-    byte[] tb = pe.getImageData().getTrailingData();
+    ImageData id = pe.getImageData();
+    ByteBuffer tb = id.getTrailingDataBuffer();
     if (tb != null)
-      dw.writeBytes(tb);
+      writeBytes(tb, id.getTrailingDataPointer(), dw);
+  }
+
+  /**
+   * Writes a block, or copies it from the source file if the writer has one
+   * and the block is known to be unchanged there.
+   */
+  private static void writeBytes(@NotNull ByteBuffer b, long pointer, @NotNull IDataWriter dw)
+          throws IOException {
+    if (pointer >= 0 && dw instanceof ChannelDataWriter && ((ChannelDataWriter) dw).hasSource())
+      ((ChannelDataWriter) dw).transferFrom(pointer, b.remaining());
+    else
+      dw.writeBytes(b);
   }
 
   private static void write(@NotNull DOSHeader dh, @NotNull IDataWriter dw) throws IOException {
@@ -217,34 +315,34 @@ public class PEAssembler {
 
     switch (entry.index) {
       case ImageDataDirectoryType.EXPORT_TABLE:
-        dw.writeBytes(id.getExportTable().get());
+        dw.writeBytes(id.getExportTable().getBuffer());
         break;
       case ImageDataDirectoryType.IMPORT_TABLE:
-        dw.writeBytes(id.getImportTable().get());
+        dw.writeBytes(id.getImportTable().getBuffer());
         break;
       case ImageDataDirectoryType.RESOURCE_TABLE:
-        dw.writeBytes(id.getResourceTable().get());
+        dw.writeBytes(id.getResourceTable().getBuffer());
         break;
       case ImageDataDirectoryType.EXCEPTION_TABLE:
-        dw.writeBytes(id.getExceptionTable());
+        dw.writeBytes(id.getExceptionTableBuffer());
         break;
       case ImageDataDirectoryType.CERTIFICATE_TABLE:
-        dw.writeBytes(id.getCertificateTable());
+        writeBytes(id.getCertificateTableBuffer(), id.getCertificateTablePointer(), dw);
         break;
       case ImageDataDirectoryType.BASE_RELOCATION_TABLE:
-        dw.writeBytes(id.getBaseRelocationTable());
+        dw.writeBytes(id.getBaseRelocationTableBuffer());
         break;
       case ImageDataDirectoryType.DEBUG:
-        dw.writeBytes(id.getDebug().get());
+        dw.writeBytes(id.getDebug().getBuffer());
         break;
       case ImageDataDirectoryType.ARCHITECTURE:
-        dw.writeBytes(id.getArchitecture());
+        dw.writeBytes(id.getArchitectureBuffer());
         break;
       case ImageDataDirectoryType.GLOBAL_PTR:
-        dw.writeBytes(id.getGlobalPtr());
+        dw.writeBytes(id.getGlobalPtrBuffer());
         break;
       case ImageDataDirectoryType.TLS_TABLE:
-        dw.writeBytes(id.getTlsTable());
+        dw.writeBytes(id.getTlsTableBuffer());
         break;
       case ImageDataDirectoryType.LOAD_CONFIG_TABLE:
         break;
@@ -252,16 +350,16 @@ public class PEAssembler {
         write(pe, id.getBoundImports(), dw);
         break;
       case ImageDataDirectoryType.IAT:
-        dw.writeBytes(id.getIat());
+        dw.writeBytes(id.getIatBuffer());
         break;
       case ImageDataDirectoryType.DELAY_IMPORT_DESCRIPTOR:
-        dw.writeBytes(id.getDelayImportDescriptor());
+        dw.writeBytes(id.getDelayImportDescriptorBuffer());
         break;
       case ImageDataDirectoryType.CLR_RUNTIME_HEADER:
-        dw.writeBytes(id.getClrRuntimeHeader());
+        dw.writeBytes(id.getClrRuntimeHeaderBuffer());
         break;
       case ImageDataDirectoryType.RESERVED:
-        dw.writeBytes(id.getReserved());
+        dw.writeBytes(id.getReservedBuffer());
         break;
     }
   }
@@ -275,7 +373,7 @@ public class PEAssembler {
       else
         dw.writeByte(0, entry.pointer - dw.getPosition());
     }
-    dw.writeBytes(pe.getImageData().getDebugRawData());
+    dw.writeBytes(pe.getImageData().getDebugRawDataBuffer());
   }
 
   private static void writeSection(@NotNull PE pe, @NotNull DataEntry entry, @NotNull IDataWriter dw)
@@ -293,8 +391,7 @@ public class PEAssembler {
       }
     }
 
-    byte[] b = sd.getData();
-    dw.writeBytes(b);
+    writeBytes(sd.getDataBuffer(), sd.getDataPointer(), dw);
   }
 
   private static void write(@NotNull PE pe, @NotNull BoundImportDirectoryTable bidt,
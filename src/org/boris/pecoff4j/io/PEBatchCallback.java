@@ -0,0 +1,22 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.PE;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+
+/**
+ * Receives the results of a {@link PEBatchParser}. The methods are called
+ * from the executor threads, possibly at the same time.
+ */
+public interface PEBatchCallback {
+  void parsed(@NotNull File file, @NotNull PE pe);
+
+  void failed(@NotNull File file, @NotNull Throwable error);
+}
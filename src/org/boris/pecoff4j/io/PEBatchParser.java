@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.PE;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Parses all the files below a directory on an executor. Results are handed
+ * to a {@link PEBatchCallback} as they come in, and a file that fails to
+ * parse is reported without stopping the others. The number of files queued
+ * or being parsed is bounded, so the directory walk never runs far ahead of
+ * the parsers.
+ */
+public class PEBatchParser {
+  @NotNull
+  private final ExecutorService executor;
+  @NotNull
+  private final ParseOptions options;
+  private final int maxPending;
+
+  public PEBatchParser(@NotNull ExecutorService executor, int maxPending) {
+    this(executor, maxPending, new ParseOptions());
+  }
+
+  public PEBatchParser(@NotNull ExecutorService executor, int maxPending,
+                       @NotNull ParseOptions options) {
+    if (maxPending <= 0)
+      throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+    this.executor = executor;
+    this.maxPending = maxPending;
+    this.options = options;
+  }
+
+  /**
+   * Parses the files below <code>root</code> on a fixed pool of
+   * <code>threads</code> threads, which is shut down afterwards.
+   */
+  public static void parse(@NotNull File root, @Nullable FilenameFilter filter, int threads,
+                           @NotNull PEBatchCallback callback) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      new PEBatchParser(executor, threads * 4).parse(root, filter, callback);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Walks <code>root</code> and parses every file the filter accepts (all
+   * files if it is null). Returns once every file has been reported.
+   */
+  public void parse(@NotNull File root, @Nullable FilenameFilter filter,
+                    @NotNull PEBatchCallback callback) throws InterruptedException {
+    Semaphore pending = new Semaphore(maxPending);
+    Deque<File> dirs = new ArrayDeque<File>();
+    dirs.push(root);
+    try {
+      while (!dirs.isEmpty()) {
+        File dir = dirs.pop();
+        File[] files = dir.listFiles();
+        if (files == null)
+          continue;
+        for (File f : files) {
+          if (f.isDirectory()) {
+            if (!isLink(f))
+              dirs.push(f);
+          } else if (filter == null || filter.accept(dir, f.getName())) {
+            pending.acquire();
+            submit(f, callback, pending);
+          }
+        }
+      }
+    } finally {
+      // Wait for the files still being parsed
+      pending.acquireUninterruptibly(maxPending);
+      pending.release(maxPending);
+    }
+  }
+
+  /**
+   * Returns true if <code>dir</code> is a symbolic link (or a junction).
+   * Linked directories are not followed, so that a link cycle cannot make
+   * the walk go on forever.
+   */
+  private static boolean isLink(@NotNull File dir) {
+    try {
+      // Only the last name may be a link, the parents have been walked already
+      File parent = dir.getAbsoluteFile().getParentFile();
+      File f = parent == null ? dir.getAbsoluteFile() : new File(parent.getCanonicalFile(), dir.getName());
+      return !f.getCanonicalFile().equals(f);
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  private void submit(@NotNull final File file, @NotNull final PEBatchCallback callback,
+                      @NotNull final Semaphore pending) {
+    Runnable task = new Runnable() {
+      public void run() {
+        try {
+          parse(file, callback);
+        } finally {
+          pending.release();
+        }
+      }
+    };
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      pending.release();
+      callback.failed(file, e);
+    }
+  }
+
+  private void parse(@NotNull File file, @NotNull PEBatchCallback callback) {
+    PE pe;
+    try {
+      pe = PEParser.parse(file, options);
+    } catch (Throwable e) {
+      // A malformed file may fail in any way, keep going with the others
+      callback.failed(file, e);
+      return;
+    }
+    callback.parsed(file, pe);
+  }
+}
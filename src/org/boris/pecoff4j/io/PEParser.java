@@ -11,22 +11,32 @@ package org.boris.pecoff4j.io;
 
 import org.boris.pecoff4j.*;
 import org.boris.pecoff4j.constant.ImageDataDirectoryType;
+import org.boris.pecoff4j.constant.MachineType;
 import org.boris.pecoff4j.util.IntMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
 public class PEParser {
+  // Slot after the image data directories in the visited flags of visit()
+  private static final int DEBUG_RAW_DATA_VISITED = 16;
+
   @NotNull
   public static PE parse(InputStream is) throws IOException {
     return read(new DataReader(is));
   }
 
+  @NotNull
+  public static PE parse(InputStream is, @NotNull ParseOptions options) throws IOException {
+    return read(new DataReader(is), options);
+  }
+
   @NotNull
   public static PE parse(String filename) throws IOException {
     return parse(new File(filename));
@@ -34,11 +44,82 @@ public class PEParser {
 
   @NotNull
   public static PE parse(File file) throws IOException {
-    return read(new DataReader(new FileInputStream(file)));
+    return read(new ByteBufferDataReader(file));
+  }
+
+  @NotNull
+  public static PE parse(File file, @NotNull ParseOptions options) throws IOException {
+    return read(new ByteBufferDataReader(file), options);
+  }
+
+  @NotNull
+  public static PE parse(RandomAccessFile file) throws IOException {
+    return read(new RandomAccessDataReader(file));
+  }
+
+  @NotNull
+  public static PE parse(RandomAccessFile file, @NotNull ParseOptions options) throws IOException {
+    return read(new RandomAccessDataReader(file), options);
+  }
+
+  /**
+   * Parses only the headers and the section table of a file. Sections and
+   * image data are read from the mapped file the first time they are asked
+   * for.
+   */
+  @NotNull
+  public static PE parseLazy(File file) throws IOException {
+    return readLazy(new ByteBufferDataReader(file));
+  }
+
+  /**
+   * Reads the headers and the section table, leaving everything else to be
+   * read on first access. The reader must stay open while the returned PE is
+   * in use.
+   */
+  @NotNull
+  public static PE readLazy(@NotNull IRandomAccessDataReader dr) throws IOException {
+    PE pe = new PE();
+    pe.setDosHeader(readDos(dr));
+
+    // Check if we have an old file type
+    if (pe.getDosHeader().getAddressOfNewExeHeader() == 0 ||
+            pe.getDosHeader().getAddressOfNewExeHeader() > 8192) {
+      return pe;
+    }
+
+    pe.setStub(readStub(pe.getDosHeader(), dr));
+    pe.setSignature(readSignature(dr));
+
+    // Check signature to ensure we have a pe/coff file
+    if (!pe.getSignature().isValid()) {
+      return pe;
+    }
+
+    pe.setCoffHeader(readCOFF(dr));
+    pe.setOptionalHeader(readOptional(dr));
+    pe.setSectionTable(readSectionHeaders(pe, dr, new LazySectionTable(pe, dr)));
+    pe.setImageData(new LazyImageData(pe, dr, dr.getPosition()));
+    return pe;
   }
 
   @NotNull
   public static PE read(@NotNull IDataReader dr) throws IOException {
+    return read(dr, new ParseOptions());
+  }
+
+  /**
+   * Gives a reader created while parsing the string pool of the options.
+   */
+  @NotNull
+  private static <T extends IDataReader> T pooled(@NotNull T dr, @NotNull ParseOptions options) {
+    dr.setStringPool(options.getStringPool());
+    return dr;
+  }
+
+  @NotNull
+  public static PE read(@NotNull IDataReader dr, @NotNull ParseOptions options) throws IOException {
+    dr.setStringPool(options.getStringPool());
     PE pe = new PE();
     pe.setDosHeader(readDos(dr));
 
@@ -59,31 +140,321 @@ public class PEParser {
     pe.setCoffHeader(readCOFF(dr));
     pe.setOptionalHeader(readOptional(dr));
     pe.setSectionTable(readSectionHeaders(pe, dr));
+    if (options.isHeadersOnly()) {
+      return pe;
+    }
 
     // Now read the rest of the file
+    LayoutPlan plan = new LayoutPlan(pe);
     DataEntry entry;
-    while ((entry = findNextEntry(pe, dr.getPosition())) != null) {
+    while ((entry = plan.next(dr.getPosition())) != null) {
       if (entry.isSection) {
-        readSection(pe, entry, dr);
+        if (options.isReadSections())
+          readSection(pe, entry, dr, options);
+        else
+          skipSection(pe, entry, dr, options);
       } else if (entry.isDebugRawData) {
         readDebugRawData(pe, entry, dr);
+      } else if (options.isReadDirectory(entry.index)) {
+        readImageData(pe, entry, dr, options);
       } else {
-        readImageData(pe, entry, dr);
+        dr.jumpTo(entry.pointer);
+        dr.skipBytes(pe.getOptionalHeader().getDataDirectory(entry.index).getSize());
       }
     }
 
+    // Pick up anything the forward-only walk has passed by
+    if (dr instanceof IRandomAccessDataReader) {
+      readSkippedImageData(pe, (IRandomAccessDataReader) dr, options);
+    }
+
     // Read any trailing data
+    if (options.isReadTrailingData()) {
+      int pointer = dr.getPosition();
+      ByteBuffer tb = readTrailingData(dr);
+      if (tb.hasRemaining()) {
+        pe.getImageData().setTrailingDataBuffer(tb, pointer);
+      }
+    }
+
+    // Resolve the import and export tables, which may live in any section
+    IRandomAccessDataReader file = dr instanceof IRandomAccessDataReader ? (IRandomAccessDataReader) dr : null;
+    if (options.isReadSections() || file != null) {
+      RVADataReader rdr = pooled(new RVADataReader(pe, file), options);
+      readImportLookupTable(pe, rdr);
+      readExportLookupTable(pe, rdr);
+    }
+
+    return pe;
+  }
+
+  public static void visit(InputStream is, @NotNull PEVisitor visitor) throws IOException {
+    visit(new DataReader(is), visitor, new ParseOptions());
+  }
+
+  public static void visit(File file, @NotNull PEVisitor visitor) throws IOException {
+    visit(new ByteBufferDataReader(file), visitor, new ParseOptions());
+  }
+
+  /**
+   * Walks the file in the same order as {@link #read(IDataReader, ParseOptions)}
+   * and reports what it finds to the visitor instead of building a PE. Only
+   * the headers and the debug directory are held on to while walking.
+   */
+  public static void visit(@NotNull IDataReader dr, @NotNull PEVisitor visitor,
+                           @NotNull ParseOptions options) throws IOException {
+    dr.setStringPool(options.getStringPool());
+    PE pe = new PE();
+    pe.setDosHeader(readDos(dr));
+    visitor.onDosHeader(pe.getDosHeader());
+
+    // Check if we have an old file type
+    int add = pe.getDosHeader().getAddressOfNewExeHeader();
+    if (add == 0 || add > 8192) {
+      return;
+    }
+
+    dr.jumpTo(add);
+    pe.setSignature(readSignature(dr));
+
+    // Check signature to ensure we have a pe/coff file
+    if (!pe.getSignature().isValid()) {
+      return;
+    }
+
+    pe.setCoffHeader(readCOFF(dr));
+    visitor.onCoffHeader(pe.getCoffHeader());
+    pe.setOptionalHeader(readOptional(dr));
+    visitor.onOptionalHeader(pe.getOptionalHeader());
+    SectionTable st = readSectionHeaders(pe, dr);
+    pe.setSectionTable(st);
+    for (int i = 0; i < st.getNumberOfSections(); i++) {
+      visitor.onSectionHeader(i, st.getHeader(i));
+    }
+    if (options.isHeadersOnly()) {
+      return;
+    }
+
+    // Directories and debug raw data reported so far
+    boolean[] visited = new boolean[DEBUG_RAW_DATA_VISITED + 1];
+    LayoutPlan plan = new LayoutPlan(pe);
+    DataEntry entry;
+    while ((entry = plan.next(dr.getPosition())) != null) {
+      dr.jumpTo(entry.pointer);
+      if (entry.isSection) {
+        visitSection(pe, st.getHeader(entry.index), entry.index, dr, visitor, options, visited);
+      } else if (entry.isDebugRawData) {
+        visitor.onDebugRawData(dr.readBuffer(pe.getImageData().getDebug().getSizeOfData()));
+        visited[DEBUG_RAW_DATA_VISITED] = true;
+      } else {
+        int size = pe.getOptionalHeader().getDataDirectory(entry.index).getSize();
+        if (options.isReadDirectory(entry.index)) {
+          visitImageData(pe, entry.index, dr.readBuffer(size), null, 0, visitor, options);
+          visited[entry.index] = true;
+        } else {
+          dr.skipBytes(size);
+        }
+      }
+    }
+
+    // Report anything the forward-only walk has passed by
+    if (dr instanceof IRandomAccessDataReader) {
+      visitSkippedImageData(pe, (IRandomAccessDataReader) dr, visitor, options, visited);
+    }
+
+    if (options.isReadTrailingData()) {
+      ByteBuffer tb = readTrailingData(dr);
+      if (tb.hasRemaining()) {
+        visitor.onTrailingData(tb);
+      }
+    }
+  }
+
+  private static void visitSection(@NotNull PE pe, @NotNull SectionHeader sh, int index,
+                                   @NotNull IDataReader dr, @NotNull PEVisitor visitor,
+                                   @NotNull ParseOptions options, @NotNull boolean[] visited)
+          throws IOException {
+    // Read the whole section, or just the span holding the selected directories
+    int start = 0;
+    int end = sh.getSizeOfRawData();
+    int ddc = pe.getOptionalHeader().getDataDirectoryCount();
+    if (!options.isReadSections()) {
+      start = end;
+      end = 0;
+      for (int i = 0; i < ddc; i++) {
+        int off = getSectionImageDataOffset(pe, sh, i, options);
+        if (off >= 0) {
+          start = Math.min(start, off);
+          end = Math.max(end, off + pe.getOptionalHeader().getDataDirectory(i).getSize());
+        }
+      }
+    }
+
+    if (start < end) {
+      dr.jumpTo(sh.getPointerToRawData() + start);
+      ByteBuffer b = dr.readBuffer(end - start);
+      if (options.isReadSections())
+        visitor.onSectionData(index, b.duplicate());
+
+      for (int i = 0; i < ddc; i++) {
+        int off = getSectionImageDataOffset(pe, sh, i, options) - start;
+        int size = pe.getOptionalHeader().getDataDirectory(i).getSize();
+        if (off >= 0 && off <= b.remaining() - size) {
+          ByteBuffer data = b.duplicate();
+          data.position(off);
+          data.limit(off + size);
+          visitImageData(pe, i, data.slice(), b, sh.getVirtualAddress() + start, visitor, options);
+          visited[i] = true;
+        }
+      }
+    }
+    dr.jumpTo(sh.getPointerToRawData() + sh.getSizeOfRawData());
+  }
+
+  private static void visitSkippedImageData(@NotNull PE pe, @NotNull IRandomAccessDataReader dr,
+                                            @NotNull PEVisitor visitor, @NotNull ParseOptions options,
+                                            @NotNull boolean[] visited) throws IOException {
+    int pos = dr.getPosition();
+    int dc = pe.getOptionalHeader().getDataDirectoryCount();
+    for (int i = 0; i < dc; i++) {
+      // The debug directory drives the layout walk, so it only comes from the main pass
+      if (i == ImageDataDirectoryType.DEBUG || visited[i] || !options.isReadDirectory(i))
+        continue;
+      ImageDataDirectory idd = pe.getOptionalHeader().getDataDirectory(i);
+      int prd = getImageDataPointer(pe, i, idd);
+      if (idd.getSize() <= 0 || prd <= 0 || prd > dr.getLength() - idd.getSize())
+        continue;
+      dr.jumpTo(prd);
+      visitImageData(pe, i, dr.readBuffer(idd.getSize()), null, 0, visitor, options);
+    }
+
+    DebugDirectory dd = pe.getImageData().getDebug();
+    if (dd != null && !visited[DEBUG_RAW_DATA_VISITED]) {
+      int prd = dd.getPointerToRawData();
+      int size = dd.getSizeOfData();
+      if (size > 0 && prd > 0 && prd <= dr.getLength() - size) {
+        dr.jumpTo(prd);
+        visitor.onDebugRawData(dr.readBuffer(size));
+      }
+    }
+
+    dr.jumpTo(pos);
+  }
+
+  /**
+   * Reports a directory and the events decoded from it. <code>section</code>
+   * holds the section data the directory was found in, starting at the
+   * virtual address <code>sectionAddress</code>.
+   */
+  private static void visitImageData(@NotNull PE pe, int index, @NotNull ByteBuffer data,
+                                     @Nullable ByteBuffer section, int sectionAddress,
+                                     @NotNull PEVisitor visitor, @NotNull ParseOptions options)
+          throws IOException {
+    visitor.onImageData(index, data.duplicate());
+    switch (index) {
+      case ImageDataDirectoryType.IMPORT_TABLE:
+        visitImports(data, section, sectionAddress, visitor, options);
+        break;
+      case ImageDataDirectoryType.RESOURCE_TABLE:
+        int baseAddress = pe.getOptionalHeader().getDataDirectory(index).getVirtualAddress();
+        visitResourceDirectory(pooled(new ByteBufferDataReader(data), options), baseAddress, 0,
+                visitor, options);
+        break;
+      case ImageDataDirectoryType.DEBUG:
+        // Needed to find the debug raw data, without holding on to the buffer
+        pe.getImageData().setDebug(readDebugDirectory(new DataReader(data)));
+        break;
+    }
+  }
+
+  private static void visitImports(@NotNull ByteBuffer data, @Nullable ByteBuffer section,
+                                   int sectionAddress, @NotNull PEVisitor visitor,
+                                   @NotNull ParseOptions options) throws IOException {
+    DataReader dr = new DataReader(data);
+    ImportDirectoryEntry ide;
+    while (dr.getPosition() <= data.limit() - 20 && (ide = readImportDirectoryEntry(dr)) != null) {
+      String name = null;
+      int off = ide.getNameRVA() - sectionAddress;
+      if (section != null && off >= 0 && off < section.limit()) {
+        IDataReader sdr = pooled(new ByteBufferDataReader(section), options);
+        sdr.jumpTo(off);
+        try {
+          name = sdr.readUtf();
+        } catch (EOFException e) {
+          // The name runs to the end of its section
+        }
+      }
+      visitor.onImport(ide, name);
+    }
+  }
+
+  private static void visitResourceDirectory(@NotNull IRandomAccessDataReader dr, int baseAddress,
+                                             int level, @NotNull PEVisitor visitor,
+                                             @NotNull ParseOptions options) throws IOException {
+    ResourceDirectoryTable t = readResourceDirectoryTable(dr);
+    int ne = t.getNumNameEntries() + t.getNumIdEntries();
+    for (int i = 0; i < ne; i++) {
+      if (!visitResourceEntry(dr, baseAddress, level, visitor, options))
+        break;
+    }
+  }
+
+  private static boolean visitResourceEntry(@NotNull IRandomAccessDataReader dr, int baseAddress,
+                                            int level, @NotNull PEVisitor visitor,
+                                            @NotNull ParseOptions options) throws IOException {
+    ResourceEntry re = new ResourceEntry();
+    int id = dr.readDoubleWord();
+    int offset = dr.readDoubleWord();
+    int pos = dr.getPosition();
+    if ((id & 0x80000000) != 0) {
+      if (!jumpToInside(dr, id & 0x7fffffff)) return false;
+      re.setName(dr.readUnicode());
+    } else {
+      re.setId(id);
+    }
+
+    if (level == 0 && !options.isReadResourceType(re.getName(), re.getId())) {
+      // Not selected, nothing is reported for the whole subtree
+      dr.jumpTo(pos);
+      return true;
+    }
+
+    if ((offset & 0x80000000) != 0) {
+      visitor.onResourceEntry(level, re, null);
+      if (options.isReadResourceLevel(level + 1)) {
+        if (!jumpToInside(dr, offset & 0x7fffffff)) return false;
+        visitResourceDirectory(dr, baseAddress, level + 1, visitor, options);
+      }
+    } else {
+      if (!jumpToInside(dr, offset)) return false;
+      int rva = dr.readDoubleWord();
+      int size = dr.readDoubleWord();
+      re.setCodePage(dr.readDoubleWord());
+      re.setReserved(dr.readDoubleWord());
+      re.setDataRVA(rva);
+      re.setSize(size);
+      int location = rva - baseAddress;
+      if (location < 0 || location > dr.getLength() - size) return false;
+      dr.jumpTo(location);
+      visitor.onResourceEntry(level, re, dr.readBuffer(size));
+    }
+    dr.jumpTo(pos);
+    return true;
+  }
+
+  @NotNull
+  private static ByteBuffer readTrailingData(@NotNull IDataReader dr) throws IOException {
+    if (dr instanceof IRandomAccessDataReader) {
+      int remaining = ((IRandomAccessDataReader) dr).getLength() - dr.getPosition();
+      return dr.readBuffer(Math.max(remaining, 0));
+    }
+
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
     int read;
     while ((read = dr.readByte()) != -1) {
       bos.write(read);
     }
-    byte[] tb = bos.toByteArray();
-    if (tb.length > 0) {
-      pe.getImageData().setTrailingData(tb);
-    }
-
-    return pe;
+    return ByteBuffer.wrap(bos.toByteArray());
   }
 
   @NotNull
@@ -224,21 +595,22 @@ public class PEParser {
   @NotNull
   public static SectionTable readSectionHeaders(@NotNull PE pe, @NotNull IDataReader dr)
           throws IOException {
-    SectionTable st = new SectionTable();
+    return readSectionHeaders(pe, dr, new SectionTable());
+  }
+
+  @NotNull
+  private static SectionTable readSectionHeaders(@NotNull PE pe, @NotNull IDataReader dr,
+                                                 @NotNull SectionTable st) throws IOException {
     int ns = pe.getCoffHeader().getNumberOfSections();
     for (int i = 0; i < ns; i++) {
       st.add(readSectionHeader(dr));
     }
 
-    SectionHeader[] sorted = st.getHeadersPointerSorted();
-    int[] virtualAddress = new int[sorted.length];
-    int[] pointerToRawData = new int[sorted.length];
-    for (int i = 0; i < sorted.length; i++) {
-      virtualAddress[i] = sorted[i].getVirtualAddress();
-      pointerToRawData[i] = sorted[i].getPointerToRawData();
+    SectionHeader[] headers = new SectionHeader[ns];
+    for (int i = 0; i < ns; i++) {
+      headers[i] = st.getHeader(i);
     }
-
-    st.setRvaConverter(new RVAConverter(virtualAddress, pointerToRawData));
+    st.setRvaConverter(new RVAConverter(headers));
     return st;
   }
 
@@ -276,18 +648,11 @@ public class PEParser {
     }
 
     // Now check image data directories
-    RVAConverter rvc = pe.getSectionTable().getRVAConverter();
     int dc = pe.getOptionalHeader().getDataDirectoryCount();
     for (int i = 0; i < dc; i++) {
       ImageDataDirectory idd = pe.getOptionalHeader().getDataDirectory(i);
       if (idd.getSize() > 0) {
-        int prd = idd.getVirtualAddress();
-        // Assume certificate live outside section ?
-        if (i != ImageDataDirectoryType.CERTIFICATE_TABLE &&
-                isInsideSection(pe, idd)) {
-          prd = rvc.convertVirtualAddressToRawDataPointer(idd
-                  .getVirtualAddress());
-        }
+        int prd = getImageDataPointer(pe, i, idd);
         if (prd >= pos && (de.pointer == 0 || prd < de.pointer)) {
           de.pointer = prd;
           de.index = i;
@@ -318,23 +683,33 @@ public class PEParser {
     return de;
   }
 
-  private static boolean isInsideSection(@NotNull PE pe, @NotNull ImageDataDirectory idd) {
+  static int getImageDataPointer(@NotNull PE pe, int index, @NotNull ImageDataDirectory idd) {
     int prd = idd.getVirtualAddress();
-    int pex = prd + idd.getSize();
-    SectionTable st = pe.getSectionTable();
-    int ns = st.getNumberOfSections();
-    for (int i = 0; i < ns; i++) {
-      SectionHeader sh = st.getHeader(i);
-      int vad = sh.getVirtualAddress();
-      int vex = vad + sh.getVirtualSize();
-      if (prd >= vad && prd < vex && pex <= vex)
-        return true;
+    // Assume certificate live outside section ?
+    if (index != ImageDataDirectoryType.CERTIFICATE_TABLE &&
+            isInsideSection(pe, idd)) {
+      prd = pe.getSectionTable().getRVAConverter()
+              .convertVirtualAddressToRawDataPointer(idd.getVirtualAddress());
     }
-    return false;
+    return prd;
+  }
+
+  private static boolean isInsideSection(@NotNull PE pe, @NotNull ImageDataDirectory idd) {
+    SectionTable st = pe.getSectionTable();
+    int index = st.indexOfVirtualAddress(idd.getVirtualAddress());
+    if (index < 0)
+      return false;
+    SectionHeader sh = st.getHeader(index);
+    return idd.getVirtualAddress() + idd.getSize() <= sh.getVirtualAddress() + sh.getVirtualSize();
   }
 
-  private static void readImageData(@NotNull PE pe, @NotNull DataEntry entry, @NotNull IDataReader dr)
+  static void readImageData(@NotNull PE pe, @NotNull DataEntry entry, @NotNull IDataReader dr)
           throws IOException {
+    readImageData(pe, entry, dr, new ParseOptions());
+  }
+
+  private static void readImageData(@NotNull PE pe, @NotNull DataEntry entry, @NotNull IDataReader dr,
+                                    @NotNull ParseOptions options) throws IOException {
 
     // Read any preamble data
     ImageData id = pe.getImageData();
@@ -345,8 +720,8 @@ public class PEParser {
     // Read the image data
     ImageDataDirectory idd = pe.getOptionalHeader().getDataDirectory(
             entry.index);
-    byte[] b = new byte[idd.getSize()];
-    dr.read(b);
+    int pointer = dr.getPosition();
+    ByteBuffer b = dr.readBuffer(idd.getSize());
 
     switch (entry.index) {
       case ImageDataDirectoryType.EXPORT_TABLE:
@@ -356,52 +731,54 @@ public class PEParser {
         id.setImportTable(readImportDirectory(b, entry.baseAddress));
         break;
       case ImageDataDirectoryType.RESOURCE_TABLE:
-        id.setResourceTable(readResourceDirectory(b, entry.baseAddress));
+        id.setResourceTable(readResourceDirectory(b, entry.baseAddress, options));
         break;
       case ImageDataDirectoryType.EXCEPTION_TABLE:
-        id.setExceptionTable(b);
+        id.setExceptionTableBuffer(b);
+        id.setRuntimeFunctions(readExceptionTable(b, pe.getCoffHeader().getMachine()));
         break;
       case ImageDataDirectoryType.CERTIFICATE_TABLE:
-        id.setCertificateTable(b);
+        id.setCertificateTableBuffer(b, pointer);
         break;
       case ImageDataDirectoryType.BASE_RELOCATION_TABLE:
-        id.setBaseRelocationTable(b);
+        id.setBaseRelocationTableBuffer(b);
+        id.setBaseRelocations(readBaseRelocationTable(b));
         break;
       case ImageDataDirectoryType.DEBUG:
         id.setDebug(readDebugDirectory(b));
         break;
       case ImageDataDirectoryType.ARCHITECTURE:
-        id.setArchitecture(b);
+        id.setArchitectureBuffer(b);
         break;
       case ImageDataDirectoryType.GLOBAL_PTR:
-        id.setGlobalPtr(b);
+        id.setGlobalPtrBuffer(b);
         break;
       case ImageDataDirectoryType.TLS_TABLE:
-        id.setTlsTable(b);
+        id.setTlsTableBuffer(b);
         break;
       case ImageDataDirectoryType.LOAD_CONFIG_TABLE:
         id.setLoadConfigTable(readLoadConfigDirectory(b));
         break;
       case ImageDataDirectoryType.BOUND_IMPORT:
-        id.setBoundImports(readBoundImportDirectoryTable(b));
+        id.setBoundImports(readBoundImportDirectoryTable(b, options));
         break;
       case ImageDataDirectoryType.IAT:
-        id.setIat(b);
+        id.setIatBuffer(b);
         break;
       case ImageDataDirectoryType.DELAY_IMPORT_DESCRIPTOR:
-        id.setDelayImportDescriptor(b);
+        id.setDelayImportDescriptorBuffer(b);
         break;
       case ImageDataDirectoryType.CLR_RUNTIME_HEADER:
-        id.setClrRuntimeHeader(b);
+        id.setClrRuntimeHeaderBuffer(b);
         break;
       case ImageDataDirectoryType.RESERVED:
-        id.setReserved(b);
+        id.setReservedBuffer(b);
         break;
     }
   }
 
   @Nullable
-  private static byte[] readPreambleData(int pointer, @NotNull IDataReader dr)
+  static byte[] readPreambleData(int pointer, @NotNull IDataReader dr)
           throws IOException {
     if (pointer > dr.getPosition()) {
       final byte[] pa = new byte[pointer - dr.getPosition()];
@@ -428,12 +805,11 @@ public class PEParser {
     final byte[] pa = readPreambleData(entry.pointer, dr);
     if (pa != null) id.setDebugRawDataPreamble(pa);
     final DebugDirectory dd = id.getDebug();
-    final byte[] b = new byte[dd.getSizeOfData()];
-    dr.read(b);
-    id.setDebugRawData(b);
+    id.setDebugRawDataBuffer(dr.readBuffer(dd.getSizeOfData()));
   }
 
-  private static void readSection(@NotNull PE pe, @NotNull DataEntry entry, @NotNull IDataReader dr) throws IOException {
+  private static void readSection(@NotNull PE pe, @NotNull DataEntry entry, @NotNull IDataReader dr,
+                                  @NotNull ParseOptions options) throws IOException {
     SectionTable st = pe.getSectionTable();
     SectionHeader sh = st.getHeader(entry.index);
     SectionData sd = new SectionData();
@@ -443,39 +819,161 @@ public class PEParser {
     if (pa != null)
       sd.setPreamble(pa);
 
-    // Read in the raw data block
+    // Read in the raw data block, directories inside it share its buffer
     dr.jumpTo(sh.getPointerToRawData());
-    byte[] b = new byte[sh.getSizeOfRawData()];
-    dr.read(b);
-    sd.setData(b);
+    ByteBuffer b = dr.readBuffer(sh.getSizeOfRawData());
+    sd.setDataBuffer(b, sh.getPointerToRawData());
     st.put(entry.index, sd);
 
     // Check for an image directory within this section
+    readSectionImageData(pe, sh, b, 0, options);
+  }
+
+  /**
+   * Passes over a section without keeping its data. Only the span holding
+   * the selected image data directories inside it is read.
+   */
+  private static void skipSection(@NotNull PE pe, @NotNull DataEntry entry, @NotNull IDataReader dr,
+                                  @NotNull ParseOptions options) throws IOException {
+    SectionHeader sh = pe.getSectionTable().getHeader(entry.index);
+    int start = sh.getSizeOfRawData();
+    int end = 0;
     int ddc = pe.getOptionalHeader().getDataDirectoryCount();
     for (int i = 0; i < ddc; i++) {
-      if (i == ImageDataDirectoryType.CERTIFICATE_TABLE)
+      int off = getSectionImageDataOffset(pe, sh, i, options);
+      if (off >= 0) {
+        start = Math.min(start, off);
+        end = Math.max(end, off + pe.getOptionalHeader().getDataDirectory(i).getSize());
+      }
+    }
+
+    if (start < end) {
+      dr.jumpTo(sh.getPointerToRawData() + start);
+      readSectionImageData(pe, sh, dr.readBuffer(end - start), start, options);
+    }
+    dr.jumpTo(sh.getPointerToRawData() + sh.getSizeOfRawData());
+  }
+
+  /**
+   * Reads the selected image data directories found within a section from
+   * <code>b</code>, which holds the section data from <code>start</code>
+   * onwards.
+   */
+  private static void readSectionImageData(@NotNull PE pe, @NotNull SectionHeader sh,
+                                           @NotNull ByteBuffer b, int start,
+                                           @NotNull ParseOptions options) throws IOException {
+    int ddc = pe.getOptionalHeader().getDataDirectoryCount();
+    for (int i = 0; i < ddc; i++) {
+      int off = getSectionImageDataOffset(pe, sh, i, options) - start;
+      ImageDataDirectory idd = pe.getOptionalHeader().getDataDirectory(i);
+      if (off >= 0 && off <= b.remaining() - idd.getSize()) {
+        IDataReader idr = pooled(new ByteBufferDataReader(b), options);
+        idr.jumpTo(off);
+        DataEntry de = new DataEntry(i, 0);
+        de.baseAddress = idd.getVirtualAddress();
+        readImageData(pe, de, idr, options);
+      }
+    }
+  }
+
+  /**
+   * Returns the offset of a selected image data directory within the raw
+   * data of a section, or -1 if it does not start there.
+   */
+  private static int getSectionImageDataOffset(@NotNull PE pe, @NotNull SectionHeader sh, int index,
+                                               @NotNull ParseOptions options) {
+    if (index == ImageDataDirectoryType.CERTIFICATE_TABLE || !options.isReadDirectory(index))
+      return -1;
+    ImageDataDirectory idd = pe.getOptionalHeader().getDataDirectory(index);
+    if (idd.getSize() <= 0)
+      return -1;
+    int vad = sh.getVirtualAddress();
+    int vex = vad + sh.getVirtualSize();
+    int dad = idd.getVirtualAddress();
+    int off = dad - vad;
+    if (dad < vad || dad >= vex || off > sh.getSizeOfRawData() - idd.getSize())
+      return -1;
+    return off;
+  }
+
+  /**
+   * Reads the image data directories and debug raw data that lie behind the
+   * position the forward walk has reached, seeking back to them.
+   */
+  private static void readSkippedImageData(@NotNull PE pe, @NotNull IRandomAccessDataReader dr,
+                                           @NotNull ParseOptions options) throws IOException {
+    int pos = dr.getPosition();
+    ImageData id = pe.getImageData();
+    int dc = pe.getOptionalHeader().getDataDirectoryCount();
+    for (int i = 0; i < dc; i++) {
+      // The debug directory drives the layout walk, so it only comes from the main pass
+      if (i == ImageDataDirectoryType.DEBUG || !options.isReadDirectory(i) || isImageDataRead(id, i))
         continue;
       ImageDataDirectory idd = pe.getOptionalHeader().getDataDirectory(i);
-      if (idd.getSize() > 0) {
-        int vad = sh.getVirtualAddress();
-        int vex = vad + sh.getVirtualSize();
-        int dad = idd.getVirtualAddress();
-        if (dad >= vad && dad < vex) {
-          int off = dad - vad;
-          off += 32;
-          IDataReader idr = new ByteArrayDataReader(b, off, idd.getSize());
-          DataEntry de = new DataEntry(i, 0);
-          de.baseAddress = sh.getVirtualAddress();
-          readImageData(pe, de, idr);
-        }
+      int prd = getImageDataPointer(pe, i, idd);
+      if (idd.getSize() <= 0 || prd <= 0 || prd > dr.getLength() - idd.getSize())
+        continue;
+      dr.jumpTo(prd);
+      DataEntry de = new DataEntry(i, 0);
+      de.baseAddress = idd.getVirtualAddress();
+      readImageData(pe, de, dr, options);
+    }
+
+    DebugDirectory dd = id.getDebug();
+    if (dd != null && id.getDebugRawDataBuffer() == null) {
+      int prd = dd.getPointerToRawData();
+      int size = dd.getSizeOfData();
+      if (size > 0 && prd > 0 && prd <= dr.getLength() - size) {
+        dr.jumpTo(prd);
+        id.setDebugRawDataBuffer(dr.readBuffer(size));
       }
     }
+
+    dr.jumpTo(pos);
+  }
+
+  private static boolean isImageDataRead(@NotNull ImageData id, int index) {
+    switch (index) {
+      case ImageDataDirectoryType.EXPORT_TABLE:
+        return id.getExportTable() != null;
+      case ImageDataDirectoryType.IMPORT_TABLE:
+        return id.getImportTable() != null;
+      case ImageDataDirectoryType.RESOURCE_TABLE:
+        return id.getResourceTable() != null;
+      case ImageDataDirectoryType.EXCEPTION_TABLE:
+        return id.getExceptionTableBuffer() != null;
+      case ImageDataDirectoryType.CERTIFICATE_TABLE:
+        return id.getCertificateTableBuffer() != null;
+      case ImageDataDirectoryType.BASE_RELOCATION_TABLE:
+        return id.getBaseRelocationTableBuffer() != null;
+      case ImageDataDirectoryType.DEBUG:
+        return id.getDebug() != null;
+      case ImageDataDirectoryType.ARCHITECTURE:
+        return id.getArchitectureBuffer() != null;
+      case ImageDataDirectoryType.GLOBAL_PTR:
+        return id.getGlobalPtrBuffer() != null;
+      case ImageDataDirectoryType.TLS_TABLE:
+        return id.getTlsTableBuffer() != null;
+      case ImageDataDirectoryType.LOAD_CONFIG_TABLE:
+        return id.getLoadConfigTable() != null;
+      case ImageDataDirectoryType.BOUND_IMPORT:
+        return id.getBoundImports() != null;
+      case ImageDataDirectoryType.IAT:
+        return id.getIatBuffer() != null;
+      case ImageDataDirectoryType.DELAY_IMPORT_DESCRIPTOR:
+        return id.getDelayImportDescriptorBuffer() != null;
+      case ImageDataDirectoryType.CLR_RUNTIME_HEADER:
+        return id.getClrRuntimeHeaderBuffer() != null;
+      case ImageDataDirectoryType.RESERVED:
+        return id.getReservedBuffer() != null;
+    }
+    return true;
   }
 
   @NotNull
   private static BoundImportDirectoryTable readBoundImportDirectoryTable(
-          byte[] b) throws IOException {
-    DataReader dr = new DataReader(b);
+          @NotNull ByteBuffer b, @NotNull ParseOptions options) throws IOException {
+    DataReader dr = pooled(new DataReader(b), options);
     BoundImportDirectoryTable bidt = new BoundImportDirectoryTable();
     List<BoundImport> imports = new ArrayList<BoundImport>();
     BoundImport bi;
@@ -488,11 +986,11 @@ public class PEParser {
         return o1.getOffsetToModuleName() - o2.getOffsetToModuleName();
       }
     });
-    IntMap names = new IntMap();
+    IntMap<String> names = new IntMap<String>();
     for (BoundImport anImport : imports) {
       bi = anImport;
       int offset = bi.getOffsetToModuleName();
-      String n = (String) names.get(offset);
+      String n = names.get(offset);
       if (n == null) {
         dr.jumpTo(offset);
         n = dr.readUtf();
@@ -520,26 +1018,21 @@ public class PEParser {
   @NotNull
   public static ImportDirectory readImportDirectory(byte[] b,
                                                     final int baseAddress) throws IOException {
+    ImportDirectory id = readImportDirectory(ByteBuffer.wrap(b), baseAddress);
+    id.set(b);
+    return id;
+  }
+
+  @NotNull
+  public static ImportDirectory readImportDirectory(@NotNull ByteBuffer b,
+                                                    final int baseAddress) throws IOException {
     DataReader dr = new DataReader(b);
     ImportDirectory id = new ImportDirectory();
+    id.setBuffer(b);
     ImportDirectoryEntry ide = null;
-    while ((ide = readImportDirectoryEntry(dr)) != null) {
+    while (dr.getPosition() <= b.limit() - 20 && (ide = readImportDirectoryEntry(dr)) != null) {
       id.add(ide);
     }
-
-        /* FIXME - name table refer to data outside image directory
-        for (int i = 0; i < id.size(); i++) {
-            ImportDirectoryEntry e = id.getEntry(i);
-            dr.jumpTo(e.getNameRVA() - baseAddress);
-            String name = dr.readUtf();
-            dr.jumpTo(e.getImportLookupTableRVA() - baseAddress);
-            ImportDirectoryTable nt = readImportDirectoryTable(dr, baseAddress);
-            dr.jumpTo(e.getImportAddressTableRVA() - baseAddress);
-            ImportDirectoryTable at = null; // readImportDirectoryTable(dr,
-            // baseAddress);
-            id.add(name, nt, at);
-        }*/
-
     return id;
   }
 
@@ -552,8 +1045,9 @@ public class PEParser {
     ide.setNameRVA(dr.readDoubleWord());
     ide.setImportAddressTableRVA(dr.readDoubleWord());
 
-    // The last entry is null
-    if (ide.getImportLookupTableRVA() == 0) {
+    // The last entry is null. The lookup table RVA alone does not end the
+    // list, as some linkers leave it 0 and only fill in the address table
+    if (ide.getNameRVA() == 0 && ide.getImportAddressTableRVA() == 0) {
       return null;
     }
 
@@ -594,12 +1088,106 @@ public class PEParser {
     return ie;
   }
 
+  /**
+   * Resolves the imports of a parsed image through its sections.
+   */
+  static void readImportLookupTable(@NotNull PE pe, @NotNull RVADataReader dr)
+          throws IOException {
+    ImportDirectory id = pe.getImageData().getImportTable();
+    if (id == null)
+      return;
+    id.setLookupTable(readImportLookupTable(id, dr, pe.getOptionalHeader().isPE32plus()));
+  }
+
+  /**
+   * Attaches the export address, name and ordinal tables, read in place from
+   * the section holding the export directory.
+   */
+  static void readExportLookupTable(@NotNull PE pe, @NotNull RVADataReader dr)
+          throws IOException {
+    ExportDirectory ed = pe.getImageData().getExportTable();
+    if (ed == null)
+      return;
+    ImageDataDirectory idd = pe.getOptionalHeader().getDataDirectory(ImageDataDirectoryType.EXPORT_TABLE);
+    SectionTable st = pe.getSectionTable();
+    int index = st.indexOfVirtualAddress(idd.getVirtualAddress());
+    ByteBuffer b = index < 0 ? null : dr.getSectionData(index);
+    if (b == null)
+      return;
+    ed.setLookupTable(new ExportLookupTable(b, st.getHeader(index).getVirtualAddress(), ed,
+            idd.getVirtualAddress(), idd.getSize()));
+  }
+
+  @NotNull
+  public static ImportLookupTable readImportLookupTable(@NotNull ImportDirectory id,
+                                                        @NotNull RVADataReader dr,
+                                                        boolean pe32plus) throws IOException {
+    ImportLookupTable ilt = new ImportLookupTable();
+    int thunkSize = pe32plus ? 8 : 4;
+    long ordinalFlag = pe32plus ? 0x8000000000000000L : 0x80000000L;
+    for (int i = 0; i < id.size(); i++) {
+      ImportDirectoryEntry ide = id.getEntry(i);
+      String name = null;
+      boolean terminated = true;
+      if (dr.contains(ide.getNameRVA(), 1)) {
+        dr.jumpTo(ide.getNameRVA());
+        try {
+          name = dr.readUtf();
+        } catch (EOFException e) {
+          // The name runs to the end of its section
+          terminated = false;
+        }
+      }
+      ilt.addModule(name, ide.getImportAddressTableRVA());
+      if (!terminated)
+        continue;
+
+      // The lookup table keeps the names even once the address table is
+      // bound, so the address table is only walked when there is none
+      int rva = ide.getImportLookupTableRVA();
+      if (rva == 0)
+        rva = ide.getImportAddressTableRVA();
+      while (dr.contains(rva, thunkSize)) {
+        dr.jumpTo(rva);
+        long thunk = pe32plus ? dr.readLong() : dr.readDoubleWord() & 0xffffffffL;
+        if (thunk == 0)
+          break;
+        if ((thunk & ordinalFlag) != 0) {
+          ilt.addOrdinal((int) thunk & 0xffff);
+        } else {
+          int hintName = (int) thunk & 0x7fffffff;
+          if (!dr.contains(hintName, 3))
+            break;
+          dr.jumpTo(hintName);
+          int hint = dr.readWord();
+          String importName;
+          try {
+            importName = dr.readUtf();
+          } catch (EOFException e) {
+            break;
+          }
+          ilt.addImport(hint, importName);
+        }
+        rva += thunkSize;
+      }
+    }
+    return ilt;
+  }
+
   @NotNull
   public static ExportDirectory readExportDirectory(byte[] b)
           throws IOException {
+    ExportDirectory edt = readExportDirectory(ByteBuffer.wrap(b));
+    edt.set(b);
+    return edt;
+  }
+
+  @NotNull
+  public static ExportDirectory readExportDirectory(@NotNull ByteBuffer b)
+          throws IOException {
     DataReader dr = new DataReader(b);
     ExportDirectory edt = new ExportDirectory();
-    edt.set(b);
+    edt.setBuffer(b);
     edt.setExportFlags(dr.readDoubleWord());
     edt.setTimeDateStamp(dr.readDoubleWord());
     edt.setMajorVersion(dr.readWord());
@@ -617,9 +1205,17 @@ public class PEParser {
   @NotNull
   public static LoadConfigDirectory readLoadConfigDirectory(byte[] b)
           throws IOException {
+    LoadConfigDirectory lcd = readLoadConfigDirectory(ByteBuffer.wrap(b));
+    lcd.set(b);
+    return lcd;
+  }
+
+  @NotNull
+  public static LoadConfigDirectory readLoadConfigDirectory(@NotNull ByteBuffer b)
+          throws IOException {
     DataReader dr = new DataReader(b);
     LoadConfigDirectory lcd = new LoadConfigDirectory();
-    lcd.set(b);
+    lcd.setBuffer(b);
     lcd.setCharacteristics(dr.readDoubleWord());
     lcd.setTimeDateStamp(dr.readDoubleWord());
     lcd.setMajorVersion(dr.readWord());
@@ -644,6 +1240,87 @@ public class PEParser {
     return lcd;
   }
 
+  /**
+   * Decodes the RUNTIME_FUNCTION entries of an exception table. Only the
+   * 12 byte layout of x64 and Itanium images is understood, null is
+   * returned for other machines.
+   */
+  @Nullable
+  public static ExceptionTable readExceptionTable(@NotNull ByteBuffer b, int machine)
+          throws IOException {
+    if (machine != MachineType.IMAGE_FILE_MACHINE_AMD64 &&
+            machine != MachineType.IMAGE_FILE_MACHINE_IA64)
+      return null;
+    DataReader dr = new DataReader(b);
+    ExceptionTable et = new ExceptionTable();
+    int count = b.remaining() / 12;
+    for (int i = 0; i < count; i++) {
+      int begin = dr.readDoubleWord();
+      int end = dr.readDoubleWord();
+      int unwind = dr.readDoubleWord();
+      // The table may be padded with empty entries
+      if (begin == 0 && end == 0)
+        break;
+      et.add(begin, end, unwind);
+    }
+    return et;
+  }
+
+  /**
+   * Reads the x64 UNWIND_INFO at the position of the reader. Itanium images
+   * lay out their unwind information differently.
+   */
+  @NotNull
+  public static UnwindInfo readUnwindInfo(@NotNull IDataReader dr) throws IOException {
+    UnwindInfo ui = new UnwindInfo();
+    int vf = dr.readByte();
+    ui.setVersion(vf & 0x7);
+    ui.setFlags(vf >>> 3);
+    ui.setSizeOfProlog(dr.readByte());
+    int count = dr.readByte();
+    int frame = dr.readByte();
+    ui.setFrameRegister(frame & 0xf);
+    ui.setFrameOffset(frame >>> 4);
+    short[] codes = new short[count];
+    for (int i = 0; i < count; i++) {
+      codes[i] = (short) dr.readWord();
+    }
+    ui.setUnwindCodes(codes);
+    // The codes are padded to an even number of slots
+    if ((count & 1) != 0)
+      dr.readWord();
+    if (ui.isChained()) {
+      ui.setChainedBeginAddress(dr.readDoubleWord());
+      ui.setChainedEndAddress(dr.readDoubleWord());
+      ui.setChainedUnwindInfoAddress(dr.readDoubleWord());
+    } else if ((ui.getFlags() & (UnwindInfo.UNW_FLAG_EHANDLER | UnwindInfo.UNW_FLAG_UHANDLER)) != 0) {
+      ui.setExceptionHandler(dr.readDoubleWord());
+    }
+    return ui;
+  }
+
+  @NotNull
+  public static BaseRelocationTable readBaseRelocationTable(@NotNull ByteBuffer b)
+          throws IOException {
+    DataReader dr = new DataReader(b);
+    BaseRelocationTable brt = new BaseRelocationTable();
+    int length = b.remaining();
+    while (dr.getPosition() <= length - 8) {
+      int pageRVA = dr.readDoubleWord();
+      int blockSize = dr.readDoubleWord();
+      // Padding at the end, or a broken block
+      if (blockSize < 8 || blockSize > length - dr.getPosition() + 8)
+        break;
+      brt.addBlock(pageRVA);
+      int count = (blockSize - 8) / 2;
+      for (int i = 0; i < count; i++) {
+        brt.addEntry(dr.readWord());
+      }
+      dr.skipBytes(blockSize - 8 - count * 2);
+    }
+    return brt;
+  }
+
   @NotNull
   public static DebugDirectory readDebugDirectory(byte[] b)
           throws IOException {
@@ -653,8 +1330,23 @@ public class PEParser {
   @NotNull
   public static DebugDirectory readDebugDirectory(byte[] b, @NotNull IDataReader dr)
           throws IOException {
-    DebugDirectory dd = new DebugDirectory();
+    DebugDirectory dd = readDebugDirectory(dr);
     dd.set(b);
+    return dd;
+  }
+
+  @NotNull
+  public static DebugDirectory readDebugDirectory(@NotNull ByteBuffer b)
+          throws IOException {
+    DebugDirectory dd = readDebugDirectory(new DataReader(b));
+    dd.setBuffer(b);
+    return dd;
+  }
+
+  @NotNull
+  private static DebugDirectory readDebugDirectory(@NotNull IDataReader dr)
+          throws IOException {
+    DebugDirectory dd = new DebugDirectory();
     dd.setCharacteristics(dr.readDoubleWord());
     dd.setTimeDateStamp(dr.readDoubleWord());
     dd.setMajorVersion(dr.readWord());
@@ -667,23 +1359,28 @@ public class PEParser {
   }
 
   @NotNull
-  private static ResourceDirectory readResourceDirectory(byte[] b,
-                                                         int baseAddress) throws IOException {
-    IDataReader dr = new ByteArrayDataReader(b);
-    return readResourceDirectory(dr, baseAddress);
+  private static ResourceDirectory readResourceDirectory(@NotNull ByteBuffer b, int baseAddress,
+                                                         @NotNull ParseOptions options) throws IOException {
+    ResourceDirectory d = readResourceDirectory(pooled(new ByteBufferDataReader(b), options),
+            baseAddress, 0, options);
+    d.setBuffer(b);
+    return d;
   }
 
   @NotNull
-  private static ResourceDirectory readResourceDirectory(@NotNull IDataReader dr,
-                                                         int baseAddress) throws IOException {
-    ResourceDirectory d = new ResourceDirectory();
-    d.setTable(readResourceDirectoryTable(dr));
-    int ne = d.getTable().getNumNameEntries() +
-            d.getTable().getNumIdEntries();
+  private static ResourceDirectory readResourceDirectory(@NotNull IRandomAccessDataReader dr,
+                                                         int baseAddress, int level,
+                                                         @NotNull ParseOptions options) throws IOException {
+    ResourceDirectoryTable table = readResourceDirectoryTable(dr);
+    int ne = table.getNumNameEntries() + table.getNumIdEntries();
+    // Each entry takes 8 bytes, which bounds the count of a broken table
+    ResourceDirectory d = new ResourceDirectory(Math.min(ne, (dr.getLength() - dr.getPosition()) / 8));
+    d.setTable(table);
     ResourceEntry resourceEntry = null;
     int count = 0;
-    while((resourceEntry = readResourceEntry(dr, baseAddress)) != null && count < ne) {
-      d.add(resourceEntry);
+    while((resourceEntry = readResourceEntry(dr, baseAddress, level, options)) != null && count < ne) {
+      if (level > 0 || options.isReadResourceType(resourceEntry.getName(), resourceEntry.getId()))
+        d.add(resourceEntry);
       count++;
     }
 
@@ -691,42 +1388,53 @@ public class PEParser {
   }
 
   @Nullable
-  private static ResourceEntry readResourceEntry(@NotNull IDataReader dr,
-                                                 int baseAddress) throws IOException {
+  private static ResourceEntry readResourceEntry(@NotNull IRandomAccessDataReader dr,
+                                                 int baseAddress, int level,
+                                                 @NotNull ParseOptions options) throws IOException {
     ResourceEntry re = new ResourceEntry();
     int id = dr.readDoubleWord();
     int offset = dr.readDoubleWord();
     int pos = dr.getPosition();
     if ((id & 0x80000000) != 0) {
-      dr.jumpTo(id & 0x7fffffff);
-      if(dr.getPosition() < 0) return null;
+      if (!jumpToInside(dr, id & 0x7fffffff)) return null;
       re.setName(dr.readUnicode());
     } else {
       re.setId(id);
     }
+    if (level == 0 && !options.isReadResourceType(re.getName(), re.getId()) ||
+            (offset & 0x80000000) != 0 && !options.isReadResourceLevel(level + 1)) {
+      // Not selected, the subtree is left unread
+      dr.jumpTo(pos);
+      return re;
+    }
     if ((offset & 0x80000000) != 0) {
-      dr.jumpTo(offset & 0x7fffffff);
-      if(dr.getPosition() < 0) return null;
-      re.setDirectory(readResourceDirectory(dr, baseAddress));
+      if (!jumpToInside(dr, offset & 0x7fffffff)) return null;
+      re.setDirectory(readResourceDirectory(dr, baseAddress, level + 1, options));
     } else {
-      dr.jumpTo(offset);
-      if(dr.getPosition() < 0) return null;
+      if (!jumpToInside(dr, offset)) return null;
       int rva = dr.readDoubleWord();
       int size = dr.readDoubleWord();
       int cp = dr.readDoubleWord();
       int res = dr.readDoubleWord();
       re.setCodePage(cp);
       re.setReserved(res);
-      dr.jumpTo(rva - baseAddress);
-      if(dr.getPosition() < 0) return null;
-      byte[] b = new byte[size];
-      dr.read(b);
-      re.setData(b);
+      if (!jumpToInside(dr, rva - baseAddress)) return null;
+      // A view into the directory, copied only if the data is asked for
+      re.setDataBuffer(dr.readBuffer(size));
+      re.setDataRVA(rva);
     }
     dr.jumpTo(pos);
     return re;
   }
 
+  private static boolean jumpToInside(@NotNull IRandomAccessDataReader dr, int location)
+          throws IOException {
+    if (location < 0 || location >= dr.getLength())
+      return false;
+    dr.jumpTo(location);
+    return true;
+  }
+
   @NotNull
   private static ResourceDirectoryTable readResourceDirectoryTable(
           @NotNull IDataReader dr) throws IOException {
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.PE;
+import org.boris.pecoff4j.RVAConverter;
+import org.boris.pecoff4j.ResourceEntry;
+import org.boris.pecoff4j.util.PEChecksum;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records edits that keep the size of what they change, such as header
+ * fields or a resource replaced by one of the same length, and writes them
+ * into the file the image was parsed from at their file offsets. Nothing
+ * else in the file is read or written, except for the checksum update which
+ * has to read the whole file.
+ * <p/>
+ * Header fields and resource entries changed here are updated in the
+ * parsed image as well; raw edits by offset or address are not.
+ */
+public class PEPatcher {
+  // Offsets into the optional header, the same for PE32 and PE32+
+  private static final int MAJOR_IMAGE_VERSION = 44;
+  private static final int MINOR_IMAGE_VERSION = 46;
+  private static final int CHECKSUM = 64;
+  private static final int SUBSYSTEM = 68;
+  private static final int DLL_CHARACTERISTICS = 70;
+
+  @NotNull
+  private final PE pe;
+  private final int coffHeaderOffset;
+  private final int optionalHeaderOffset;
+  @NotNull
+  private final List<Edit> edits = new ArrayList<Edit>();
+  private boolean updateCheckSum;
+
+  public PEPatcher(@NotNull PE pe) {
+    this.pe = pe;
+    this.coffHeaderOffset = pe.getDosHeader().getAddressOfNewExeHeader() + 4;
+    this.optionalHeaderOffset = coffHeaderOffset + 20;
+  }
+
+  /**
+   * Whether the checksum in the optional header is recomputed once the
+   * edits have been written.
+   */
+  public void setUpdateCheckSum(boolean updateCheckSum) {
+    this.updateCheckSum = updateCheckSum;
+  }
+
+  public void setTimeDateStamp(int timeDateStamp) {
+    pe.getCoffHeader().setTimeDateStamp(timeDateStamp);
+    patchDoubleWord(coffHeaderOffset + 4, timeDateStamp);
+  }
+
+  public void setImageVersion(int major, int minor) {
+    pe.getOptionalHeader().setMajorImageVersion(major);
+    pe.getOptionalHeader().setMinorImageVersion(minor);
+    patchWord(optionalHeaderOffset + MAJOR_IMAGE_VERSION, major);
+    patchWord(optionalHeaderOffset + MINOR_IMAGE_VERSION, minor);
+  }
+
+  public void setCheckSum(int checkSum) {
+    pe.getOptionalHeader().setCheckSum(checkSum);
+    patchDoubleWord(optionalHeaderOffset + CHECKSUM, checkSum);
+  }
+
+  public void setSubsystem(int subsystem) {
+    pe.getOptionalHeader().setSubsystem(subsystem);
+    patchWord(optionalHeaderOffset + SUBSYSTEM, subsystem);
+  }
+
+  public void setDllCharacteristics(int dllCharacteristics) {
+    pe.getOptionalHeader().setDllCharacteristics(dllCharacteristics);
+    patchWord(optionalHeaderOffset + DLL_CHARACTERISTICS, dllCharacteristics);
+  }
+
+  /**
+   * Replaces the data of a resource with data of the same size.
+   */
+  public void setResourceData(@NotNull ResourceEntry entry, @NotNull byte[] data) {
+    if (entry.getDirectory() != null || data.length != entry.getSize())
+      throw new IllegalArgumentException("Resource data must keep its size of " +
+              entry.getSize() + " bytes, not " + data.length);
+    patchRVA(entry.getDataRVA(), data);
+    entry.setData(data);
+  }
+
+  /**
+   * Overwrites bytes at a relative virtual address. The bytes must lie in
+   * the raw data of a single section, or in the headers.
+   */
+  public void patchRVA(int rva, @NotNull byte[] data) {
+    RVAConverter rvc = pe.getSectionTable().getRVAConverter();
+    int pointer = rvc.rvaToRawPointer(rva);
+    if (pointer == RVAConverter.UNMAPPED || data.length > 0 &&
+            rvc.rvaToRawPointer(rva + data.length - 1) != pointer + data.length - 1)
+      throw new IllegalArgumentException("Address range is not backed by the file: " +
+              rva + " (" + data.length + " bytes)");
+    patch(pointer, data);
+  }
+
+  /**
+   * Overwrites bytes at a file offset. The parsed image is not updated.
+   */
+  public void patch(long pointer, @NotNull byte[] data) {
+    if (pointer < 0)
+      throw new IllegalArgumentException("Negative file offset: " + pointer);
+    edits.add(new Edit(pointer, data.clone()));
+  }
+
+  private void patchWord(long pointer, int value) {
+    patch(pointer, new byte[]{(byte) value, (byte) (value >> 8)});
+  }
+
+  private void patchDoubleWord(long pointer, int value) {
+    patch(pointer, new byte[]{(byte) value, (byte) (value >> 8),
+            (byte) (value >> 16), (byte) (value >> 24)});
+  }
+
+  public void apply(@NotNull File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      apply(raf.getChannel());
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Writes the recorded edits, in the order they were made, to a channel
+   * open for reading and writing on the file the image was parsed from.
+   * The edits are kept and may be applied to further copies of the file.
+   */
+  public void apply(@NotNull FileChannel fc) throws IOException {
+    long size = fc.size();
+    for (Edit e : edits) {
+      if (e.pointer + e.data.length > size)
+        throw new IOException("Edit at " + e.pointer + " runs past the end of the file");
+    }
+    for (Edit e : edits) {
+      ByteBuffer b = ByteBuffer.wrap(e.data);
+      while (b.hasRemaining()) {
+        fc.write(b, e.pointer + b.position());
+      }
+    }
+    if (updateCheckSum) {
+      long offset = optionalHeaderOffset + CHECKSUM;
+      MappedByteBuffer mb = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      int checkSum = PEChecksum.compute(mb, (int) offset, null);
+      pe.getOptionalHeader().setCheckSum(checkSum);
+      ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      b.putInt(0, checkSum);
+      while (b.hasRemaining()) {
+        fc.write(b, offset + b.position());
+      }
+    }
+  }
+
+  private static class Edit {
+    final long pointer;
+    @NotNull
+    final byte[] data;
+
+    Edit(long pointer, @NotNull byte[] data) {
+      this.pointer = pointer;
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.OptionalHeader;
+import org.boris.pecoff4j.constant.Characteristics;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The key header fields of a file, read with a single positional read of
+ * the first page (and a second one only when the PE header lies beyond
+ * it). No PE objects are built. Also knows where the checksum, the data
+ * directory table and the section table live in the file.
+ */
+public class PEProbe {
+  public static final int PAGE_SIZE = 4096;
+
+  // Offsets of the fields read here
+  private static final int DOS_MAGIC = 0x5A4D;
+  private static final int PE_SIGNATURE = 0x00004550;
+  private static final int NEW_EXE_HEADER = 60;
+  private static final int COFF_HEADER_SIZE = 20;
+  private static final int MAX_HEADER_SIZE = 4 + COFF_HEADER_SIZE + 240;
+  private static final int CHECKSUM = 64;
+  private static final int SUBSYSTEM = 68;
+  private static final int DLL_CHARACTERISTICS = 70;
+  private static final int DATA_DIRECTORIES_PE32 = 96;
+  private static final int DATA_DIRECTORIES_PE32plus = 112;
+
+  private final boolean dosSignatureValid;
+  private final boolean peSignatureValid;
+  private final int peHeaderOffset;
+  private final int machine;
+  private final int numberOfSections;
+  private final int timeDateStamp;
+  private final int sizeOfOptionalHeader;
+  private final int characteristics;
+  private final int magic;
+  private final int checkSum;
+  private final int subsystem;
+  private final int dllCharacteristics;
+  // Virtual address and size of each data directory
+  @NotNull
+  private final int[] directories;
+
+  /**
+   * Decodes the headers from <code>b</code>, which holds the file from
+   * offset <code>base</code> onwards. The DOS header is only looked at when
+   * <code>base</code> is 0, otherwise it is taken as already checked with
+   * the PE header at <code>base</code>.
+   */
+  private PEProbe(@NotNull ByteBuffer b, int base) {
+    b = b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    this.dosSignatureValid = base != 0 || word(b, 0) == DOS_MAGIC;
+    this.peHeaderOffset = base != 0 ? base : dosSignatureValid ? doubleWord(b, NEW_EXE_HEADER) : 0;
+
+    int coff = this.peHeaderOffset - base + 4;
+    this.peSignatureValid = dosSignatureValid && this.peHeaderOffset > 0 &&
+            coff + COFF_HEADER_SIZE <= b.limit() && doubleWord(b, coff - 4) == PE_SIGNATURE;
+    if (!peSignatureValid) {
+      machine = numberOfSections = timeDateStamp = sizeOfOptionalHeader = characteristics = 0;
+      magic = checkSum = subsystem = dllCharacteristics = 0;
+      directories = new int[0];
+      return;
+    }
+
+    machine = word(b, coff);
+    numberOfSections = word(b, coff + 2);
+    timeDateStamp = doubleWord(b, coff + 4);
+    sizeOfOptionalHeader = word(b, coff + 16);
+    characteristics = word(b, coff + 18);
+
+    int oh = coff + COFF_HEADER_SIZE;
+    magic = word(b, oh);
+    checkSum = doubleWord(b, oh + CHECKSUM);
+    subsystem = word(b, oh + SUBSYSTEM);
+    dllCharacteristics = word(b, oh + DLL_CHARACTERISTICS);
+
+    int dd = magic == OptionalHeader.MAGIC_PE32plus ? DATA_DIRECTORIES_PE32plus : DATA_DIRECTORIES_PE32;
+    int count = Math.min(doubleWord(b, oh + dd - 4), 16);
+    count = Math.min(count, (sizeOfOptionalHeader - dd) / 8);
+    directories = new int[Math.max(count, 0) * 2];
+    for (int i = 0; i < directories.length; i++) {
+      directories[i] = doubleWord(b, oh + dd + i * 4);
+    }
+  }
+
+  @NotNull
+  public static PEProbe probe(@NotNull File file) throws IOException {
+    FileInputStream fis = new FileInputStream(file);
+    try {
+      return probe(fis.getChannel());
+    } finally {
+      fis.close();
+    }
+  }
+
+  @NotNull
+  public static PEProbe probe(@NotNull FileChannel fc) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    read(fc, b, 0);
+    int add = word(b, 0) == DOS_MAGIC ? doubleWord(b, NEW_EXE_HEADER) : 0;
+    if (add > 0 && add + MAX_HEADER_SIZE > b.limit() && b.limit() == PAGE_SIZE) {
+      // The PE header does not fit in the first page
+      b.clear();
+      b.limit(MAX_HEADER_SIZE);
+      read(fc, b, add);
+      return new PEProbe(b, add);
+    }
+    return new PEProbe(b, 0);
+  }
+
+  /**
+   * Probes a buffer holding the file from offset 0, for instance a mapped
+   * file. The buffer position is ignored and left untouched.
+   */
+  @NotNull
+  public static PEProbe probe(@NotNull ByteBuffer file) {
+    ByteBuffer b = file.duplicate();
+    b.clear();
+    return new PEProbe(b, 0);
+  }
+
+  private static void read(@NotNull FileChannel fc, @NotNull ByteBuffer b, long position)
+          throws IOException {
+    while (b.hasRemaining()) {
+      int read = fc.read(b, position + b.position());
+      if (read < 0)
+        break;
+    }
+    b.flip();
+  }
+
+  private static int word(@NotNull ByteBuffer b, int offset) {
+    if (offset < 0 || offset + 2 > b.limit())
+      return 0;
+    return b.getShort(offset) & 0xffff;
+  }
+
+  private static int doubleWord(@NotNull ByteBuffer b, int offset) {
+    if (offset < 0 || offset + 4 > b.limit())
+      return 0;
+    return b.getInt(offset);
+  }
+
+  public boolean isValid() {
+    return dosSignatureValid && peSignatureValid;
+  }
+
+  public boolean isDosSignatureValid() {
+    return dosSignatureValid;
+  }
+
+  public boolean isPeSignatureValid() {
+    return peSignatureValid;
+  }
+
+  public int getMachine() {
+    return machine;
+  }
+
+  public int getNumberOfSections() {
+    return numberOfSections;
+  }
+
+  public int getTimeDateStamp() {
+    return timeDateStamp;
+  }
+
+  public int getCharacteristics() {
+    return characteristics;
+  }
+
+  public boolean isDll() {
+    return (characteristics & Characteristics.IMAGE_FILE_DLL) != 0;
+  }
+
+  public int getMagic() {
+    return magic;
+  }
+
+  public boolean isPE32plus() {
+    return magic == OptionalHeader.MAGIC_PE32plus;
+  }
+
+  public int getCheckSum() {
+    return checkSum;
+  }
+
+  public int getSubsystem() {
+    return subsystem;
+  }
+
+  public int getDllCharacteristics() {
+    return dllCharacteristics;
+  }
+
+  public int getDataDirectoryCount() {
+    return directories.length / 2;
+  }
+
+  public int getDataDirectoryVirtualAddress(int index) {
+    return directories[index * 2];
+  }
+
+  public int getDataDirectorySize(int index) {
+    return directories[index * 2 + 1];
+  }
+
+  /**
+   * File offset of the "PE\0\0" signature.
+   */
+  public int getPeHeaderOffset() {
+    return peHeaderOffset;
+  }
+
+  public int getOptionalHeaderOffset() {
+    return peHeaderOffset + 4 + COFF_HEADER_SIZE;
+  }
+
+  public int getSizeOfOptionalHeader() {
+    return sizeOfOptionalHeader;
+  }
+
+  public int getCheckSumOffset() {
+    return getOptionalHeaderOffset() + CHECKSUM;
+  }
+
+  /**
+   * File offset of the data directory table, 8 bytes per directory.
+   */
+  public int getDataDirectoryOffset() {
+    return getOptionalHeaderOffset() + (isPE32plus() ? DATA_DIRECTORIES_PE32plus : DATA_DIRECTORIES_PE32);
+  }
+
+  public int getSectionTableOffset() {
+    return getOptionalHeaderOffset() + sizeOfOptionalHeader;
+  }
+}
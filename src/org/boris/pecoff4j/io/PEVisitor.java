@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the structures of a file as {@link PEParser#visit} walks it in
+ * file order. Buffers are only valid for the duration of the call, copy
+ * anything that has to be kept. See {@link PEVisitorAdapter} for a visitor
+ * that ignores everything.
+ */
+public interface PEVisitor {
+  void onDosHeader(@NotNull DOSHeader header) throws IOException;
+
+  void onCoffHeader(@NotNull COFFHeader header) throws IOException;
+
+  void onOptionalHeader(@NotNull OptionalHeader header) throws IOException;
+
+  void onSectionHeader(int index, @NotNull SectionHeader header) throws IOException;
+
+  void onSectionData(int index, @NotNull ByteBuffer data) throws IOException;
+
+  /**
+   * Called with the raw bytes of each image data directory, before any of
+   * the typed events decoded from it.
+   */
+  void onImageData(int directory, @NotNull ByteBuffer data) throws IOException;
+
+  /**
+   * Called for each import descriptor. The module name is only resolved
+   * when it lies in the same section as the import directory.
+   */
+  void onImport(@NotNull ImportDirectoryEntry entry, @Nullable String name) throws IOException;
+
+  /**
+   * Called for each resource entry in depth-first order. Level 0 holds the
+   * types, 1 the names and 2 the languages. Leaf entries come with their
+   * data, the directory of an entry is never set.
+   */
+  void onResourceEntry(int level, @NotNull ResourceEntry entry, @Nullable ByteBuffer data) throws IOException;
+
+  void onDebugRawData(@NotNull ByteBuffer data) throws IOException;
+
+  void onTrailingData(@NotNull ByteBuffer data) throws IOException;
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link PEVisitor} that does nothing, extend it to handle only some of
+ * the events.
+ */
+public class PEVisitorAdapter implements PEVisitor {
+  public void onDosHeader(@NotNull DOSHeader header) throws IOException {
+  }
+
+  public void onCoffHeader(@NotNull COFFHeader header) throws IOException {
+  }
+
+  public void onOptionalHeader(@NotNull OptionalHeader header) throws IOException {
+  }
+
+  public void onSectionHeader(int index, @NotNull SectionHeader header) throws IOException {
+  }
+
+  public void onSectionData(int index, @NotNull ByteBuffer data) throws IOException {
+  }
+
+  public void onImageData(int directory, @NotNull ByteBuffer data) throws IOException {
+  }
+
+  public void onImport(@NotNull ImportDirectoryEntry entry, @Nullable String name) throws IOException {
+  }
+
+  public void onResourceEntry(int level, @NotNull ResourceEntry entry, @Nullable ByteBuffer data) throws IOException {
+  }
+
+  public void onDebugRawData(@NotNull ByteBuffer data) throws IOException {
+  }
+
+  public void onTrailingData(@NotNull ByteBuffer data) throws IOException {
+  }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.util.StringPool;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Selects the parts of a file {@link PEParser} decodes. Anything that is not
+ * selected is skipped over without being read into memory. By default
+ * everything is read.
+ */
+public class ParseOptions {
+  private static final int ALL_DIRECTORIES = 0xffff;
+
+  private boolean headersOnly;
+  private boolean readSections = true;
+  private int directories = ALL_DIRECTORIES;
+  private boolean readTrailingData = true;
+  private int resourceDepth = -1;
+  @Nullable
+  private int[] resourceTypes;
+  @Nullable
+  private StringPool stringPool;
+
+  public boolean isHeadersOnly() {
+    return headersOnly;
+  }
+
+  /**
+   * Stops after the DOS, COFF and optional headers and the section headers.
+   */
+  public void setHeadersOnly(boolean headersOnly) {
+    this.headersOnly = headersOnly;
+  }
+
+  public boolean isReadSections() {
+    return readSections;
+  }
+
+  /**
+   * Whether the raw section data is kept. Selected image data directories
+   * that live inside a section are read either way.
+   */
+  public void setReadSections(boolean readSections) {
+    this.readSections = readSections;
+  }
+
+  public boolean isReadDirectory(int type) {
+    return type >= 0 && type < 16 && (directories & 1 << type) != 0;
+  }
+
+  public void setReadDirectory(int type, boolean read) {
+    if (read)
+      directories |= 1 << type;
+    else
+      directories &= ~(1 << type);
+  }
+
+  /**
+   * Reads only the given {@link org.boris.pecoff4j.constant.ImageDataDirectoryType}
+   * directories. The debug raw data is read along with the debug directory.
+   */
+  public void setReadDirectories(int... types) {
+    directories = 0;
+    for (int type : types) {
+      setReadDirectory(type, true);
+    }
+  }
+
+  public boolean isReadTrailingData() {
+    return readTrailingData;
+  }
+
+  public void setReadTrailingData(boolean readTrailingData) {
+    this.readTrailingData = readTrailingData;
+  }
+
+  public int getResourceDepth() {
+    return resourceDepth;
+  }
+
+  /**
+   * Limits how many levels of the resource tree are decoded: 1 for the
+   * types, 2 for the names and 3 for the languages and the data. Negative
+   * for no limit.
+   */
+  public void setResourceDepth(int resourceDepth) {
+    this.resourceDepth = resourceDepth;
+  }
+
+  @Nullable
+  public int[] getResourceTypes() {
+    return resourceTypes;
+  }
+
+  /**
+   * Decodes only the given {@link org.boris.pecoff4j.constant.ResourceType}
+   * subtrees, or all of them when null. Types identified by name are
+   * skipped once a filter is set.
+   */
+  public void setResourceTypes(@Nullable int... resourceTypes) {
+    this.resourceTypes = resourceTypes;
+  }
+
+  public boolean isReadResourceLevel(int level) {
+    return resourceDepth < 0 || level < resourceDepth;
+  }
+
+  public boolean isReadResourceType(@Nullable String name, int id) {
+    if (resourceTypes == null)
+      return true;
+    if (name != null)
+      return false;
+    for (int type : resourceTypes) {
+      if (type == id)
+        return true;
+    }
+    return false;
+  }
+
+  public boolean isShareStrings() {
+    return stringPool != null;
+  }
+
+  /**
+   * Makes equal strings read with these options share a single instance,
+   * through a new {@link StringPool} kept by the options.
+   */
+  public void setShareStrings(boolean shareStrings) {
+    if (!shareStrings)
+      stringPool = null;
+    else if (stringPool == null)
+      stringPool = new StringPool();
+  }
+
+  @Nullable
+  public StringPool getStringPool() {
+    return stringPool;
+  }
+
+  /**
+   * The pool that strings read with these options are shared through, or
+   * null to not share them. One pool may be used for many files, so that
+   * names such as "KERNEL32.dll" are kept once across all of them.
+   */
+  public void setStringPool(@Nullable StringPool stringPool) {
+    this.stringPool = stringPool;
+  }
+}
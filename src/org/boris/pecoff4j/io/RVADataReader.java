@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.PE;
+import org.boris.pecoff4j.SectionData;
+import org.boris.pecoff4j.SectionHeader;
+import org.boris.pecoff4j.SectionTable;
+import org.boris.pecoff4j.util.StringPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a parsed image by relative virtual address: positions are RVAs and
+ * {@link #jumpTo(int)} moves to whichever section holds the address. The
+ * sections are taken from the section table when their data was kept, or
+ * else read from the file. Only the raw data of a section can be read, and
+ * a single read does not continue into the next section.
+ */
+public class RVADataReader implements IRandomAccessDataReader {
+  @NotNull
+  private final PE pe;
+  @Nullable
+  private final IRandomAccessDataReader file;
+  @NotNull
+  private final ByteBufferDataReader[] sections;
+  @NotNull
+  private final ByteBuffer[] sectionData;
+  @Nullable
+  private ByteBufferDataReader current;
+  private int base;
+  @Nullable
+  private StringPool pool;
+
+  public RVADataReader(@NotNull PE pe) {
+    this(pe, null);
+  }
+
+  /**
+   * @param file the file the image was parsed from, used for sections whose
+   *             data was not kept
+   */
+  public RVADataReader(@NotNull PE pe, @Nullable IRandomAccessDataReader file) {
+    this.pe = pe;
+    this.file = file;
+    this.sections = new ByteBufferDataReader[pe.getSectionTable().getNumberOfSections()];
+    this.sectionData = new ByteBuffer[sections.length];
+  }
+
+  /**
+   * Returns true if <code>size</code> bytes from <code>rva</code> on can be
+   * read.
+   */
+  public boolean contains(int rva, int size) throws IOException {
+    int index = pe.getSectionTable().indexOfVirtualAddress(rva);
+    if (index < 0)
+      return false;
+    ByteBufferDataReader r = section(index);
+    int offset = rva - pe.getSectionTable().getHeader(index).getVirtualAddress();
+    return r != null && size >= 0 && offset <= r.getLength() - size;
+  }
+
+  /**
+   * Returns the raw data of a section, or null if it is not available.
+   */
+  @Nullable
+  public ByteBuffer getSectionData(int index) throws IOException {
+    ByteBufferDataReader r = section(index);
+    return r == null ? null : sectionData[index];
+  }
+
+  @Nullable
+  private ByteBufferDataReader section(int index) throws IOException {
+    if (sections[index] != null)
+      return sections[index];
+    SectionTable st = pe.getSectionTable();
+    SectionData sd = st.getSection(index);
+    ByteBuffer b = sd == null ? null : sd.getDataBuffer();
+    if (b == null && file != null) {
+      SectionHeader sh = st.getHeader(index);
+      int prd = sh.getPointerToRawData();
+      if (prd > 0 && prd < file.getLength()) {
+        file.jumpTo(prd);
+        b = file.readBuffer(Math.min(sh.getSizeOfRawData(), file.getLength() - prd));
+      }
+    }
+    if (b == null)
+      return null;
+    ByteBufferDataReader r = new ByteBufferDataReader(b);
+    r.setStringPool(pool);
+    sections[index] = r;
+    sectionData[index] = b.asReadOnlyBuffer();
+    return r;
+  }
+
+  @NotNull
+  private ByteBufferDataReader current() throws EOFException {
+    if (current == null)
+      throw new EOFException("No address has been jumped to");
+    return current;
+  }
+
+  /**
+   * The size of the image once loaded.
+   */
+  public int getLength() {
+    return pe.getOptionalHeader().getSizeOfImage();
+  }
+
+  public int getPosition() {
+    return current == null ? 0 : base + current.getPosition();
+  }
+
+  public void jumpTo(int location) throws IOException {
+    if (current != null && location >= base && location - base <= current.getLength()) {
+      current.jumpTo(location - base);
+      return;
+    }
+    SectionTable st = pe.getSectionTable();
+    int index = st.indexOfVirtualAddress(location);
+    ByteBufferDataReader r = index < 0 ? null : section(index);
+    if (r == null)
+      throw new EOFException("Address is not mapped to a section (" + location + ")");
+    int va = st.getHeader(index).getVirtualAddress();
+    r.jumpTo(location - va);
+    current = r;
+    base = va;
+  }
+
+  public void skipBytes(int numBytes) throws IOException {
+    jumpTo(getPosition() + numBytes);
+  }
+
+  public void close() throws IOException {
+  }
+
+  public int readByte() throws IOException {
+    return current().readByte();
+  }
+
+  public int readWord() throws IOException {
+    return current().readWord();
+  }
+
+  public int readDoubleWord() throws IOException {
+    return current().readDoubleWord();
+  }
+
+  public long readLong() throws IOException {
+    return current().readLong();
+  }
+
+  public void read(@NotNull byte[] b) throws IOException {
+    current().read(b);
+  }
+
+  @NotNull
+  public ByteBuffer readBuffer(int size) throws IOException {
+    return current().readBuffer(size);
+  }
+
+  @NotNull
+  public String readUtf(int size) throws IOException {
+    return current().readUtf(size);
+  }
+
+  public String readUtf() throws IOException {
+    return current().readUtf();
+  }
+
+  @Nullable
+  public String readUnicode() throws IOException {
+    return current().readUnicode();
+  }
+
+  @NotNull
+  public String readUnicode(int size) throws IOException {
+    return current().readUnicode(size);
+  }
+
+  public void setStringPool(@Nullable StringPool pool) {
+    this.pool = pool;
+    for (ByteBufferDataReader r : sections) {
+      if (r != null)
+        r.setStringPool(pool);
+    }
+  }
+}
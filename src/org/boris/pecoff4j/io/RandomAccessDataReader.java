@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.util.StringPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads little-endian data from a {@link RandomAccessFile} through a read-ahead
+ * window. Jumps inside the window are free, jumps outside of it (in either
+ * direction) cost one seek and one window refill.
+ */
+public class RandomAccessDataReader implements IRandomAccessDataReader {
+  public static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+  @NotNull
+  private final RandomAccessFile file;
+  private final int length;
+  @NotNull
+  private final byte[] window;
+  // The window again, for decoding strings in place
+  @NotNull
+  private final ByteBuffer windowBuffer;
+  private int windowStart;
+  private int windowLength;
+  private int position;
+  @Nullable
+  private StringPool pool;
+
+  public RandomAccessDataReader(@NotNull File file) throws IOException {
+    this(new RandomAccessFile(file, "r"));
+  }
+
+  public RandomAccessDataReader(@NotNull RandomAccessFile file) throws IOException {
+    this(file, DEFAULT_WINDOW_SIZE);
+  }
+
+  public RandomAccessDataReader(@NotNull RandomAccessFile file, int windowSize) throws IOException {
+    long size = file.length();
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("File is too large (" + size + ")");
+    this.file = file;
+    this.length = (int) size;
+    this.window = new byte[windowSize];
+    this.windowBuffer = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public int readByte() throws IOException {
+    if (position >= length)
+      return -1;
+    fill(1);
+    return window[position++ - windowStart] & 0xff;
+  }
+
+  public int readWord() throws IOException {
+    fill(2);
+    int i = position - windowStart;
+    position += 2;
+    return window[i] & 0xff | (window[i + 1] & 0xff) << 8;
+  }
+
+  public int readDoubleWord() throws IOException {
+    fill(4);
+    int i = position - windowStart;
+    position += 4;
+    return window[i] & 0xff | (window[i + 1] & 0xff) << 8 |
+            (window[i + 2] & 0xff) << 16 | (window[i + 3] & 0xff) << 24;
+  }
+
+  public long readLong() throws IOException {
+    return (readDoubleWord() & 0x00000000ffffffffl) | ((long) readDoubleWord() << 32l);
+  }
+
+  public int getPosition() {
+    return position;
+  }
+
+  public void jumpTo(int location) throws IOException {
+    if (location < 0 || location > length)
+      throw new EOFException("Location is outside of the file (" + location + ")");
+    position = location;
+  }
+
+  public void skipBytes(int numBytes) throws IOException {
+    jumpTo(position + numBytes);
+  }
+
+  public void close() throws IOException {
+    file.close();
+  }
+
+  public void read(@NotNull byte[] b) throws IOException {
+    if (b.length > window.length) {
+      if (position + b.length > length)
+        throw new EOFException("Unexpected end of file");
+      file.seek(position);
+      file.readFully(b);
+    } else {
+      fill(b.length);
+      System.arraycopy(window, position - windowStart, b, 0, b.length);
+    }
+    position += b.length;
+  }
+
+  @NotNull
+  public ByteBuffer readBuffer(int size) throws IOException {
+    byte[] b = new byte[size];
+    read(b);
+    return ByteBuffer.wrap(b).asReadOnlyBuffer();
+  }
+
+  @NotNull
+  public String readUtf(int size) throws IOException {
+    if (size > window.length) {
+      byte[] b = new byte[size];
+      read(b);
+      ByteBuffer bb = ByteBuffer.wrap(b);
+      int end = Strings.indexOfNul(bb, 0, size);
+      return intern(Strings.decode(bb, 0, end < 0 ? size : end));
+    }
+    fill(size);
+    int start = position - windowStart;
+    int end = Strings.indexOfNul(windowBuffer, start, start + size);
+    position += size;
+    return intern(Strings.decode(windowBuffer, start, (end < 0 ? start + size : end) - start));
+  }
+
+  public String readUtf() throws IOException {
+    while (true) {
+      fill(1);
+      int start = position - windowStart;
+      int end = Strings.indexOfNul(windowBuffer, start, windowLength);
+      if (end >= 0) {
+        position += end - start + 1;
+        return intern(Strings.decode(windowBuffer, start, end - start));
+      }
+      if (start == 0)
+        break;
+      load(position);
+    }
+
+    // Longer than the window
+    StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = readByte()) != 0) {
+      if (c == -1)
+        throw new EOFException("Unexpected end of file");
+      sb.append((char) c);
+    }
+    return intern(sb.toString());
+  }
+
+  @Nullable
+  public String readUnicode() throws IOException {
+    while (true) {
+      fill(2);
+      int start = position - windowStart;
+      int end = Strings.indexOfNul16(windowBuffer, start, windowLength);
+      if (end >= 0) {
+        position += end - start + 2;
+        if (end == start) {
+          return null;
+        }
+        return intern(Strings.decode16(windowBuffer, start, (end - start) / 2));
+      }
+      if (start == 0)
+        break;
+      load(position);
+    }
+
+    // Longer than the window
+    StringBuilder sb = new StringBuilder();
+    char c;
+    while ((c = (char) readWord()) != 0) {
+      sb.append(c);
+    }
+    return intern(sb.toString());
+  }
+
+  @NotNull
+  public String readUnicode(int size) throws IOException {
+    if (size * 2 > window.length) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < size; i++) {
+        sb.append((char) readWord());
+      }
+      return intern(sb.toString());
+    }
+    fill(size * 2);
+    int start = position - windowStart;
+    position += size * 2;
+    return intern(Strings.decode16(windowBuffer, start, size));
+  }
+
+  public void setStringPool(@Nullable StringPool pool) {
+    this.pool = pool;
+  }
+
+  private String intern(String s) {
+    return pool == null ? s : pool.intern(s);
+  }
+
+  /**
+   * Makes sure the window holds <code>size</code> bytes starting at the
+   * current position, reloading it from the file if needed.
+   */
+  private void fill(int size) throws IOException {
+    if (position >= windowStart && position + size <= windowStart + windowLength)
+      return;
+    if (position + size > length)
+      throw new EOFException("Unexpected end of file");
+    load(position);
+  }
+
+  private void load(int start) throws IOException {
+    windowStart = start;
+    windowLength = Math.min(window.length, length - start);
+    file.seek(windowStart);
+    file.readFully(window, 0, windowLength);
+  }
+}
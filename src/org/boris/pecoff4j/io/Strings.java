@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Decodes strings from a range of a buffer in one go. Single byte strings
+ * are ISO-8859-1, so every byte maps to the char of the same value. Wide
+ * strings are UTF-16LE code units copied as they are, so that unpaired
+ * surrogates survive a round trip.
+ */
+final class Strings {
+  static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  private Strings() {
+  }
+
+  /**
+   * Returns the index of the first zero byte in <code>[from, to)</code>,
+   * or -1.
+   */
+  static int indexOfNul(@NotNull ByteBuffer b, int from, int to) {
+    if (b.hasArray()) {
+      byte[] a = b.array();
+      int offset = b.arrayOffset();
+      for (int i = from + offset, end = to + offset; i < end; i++) {
+        if (a[i] == 0)
+          return i - offset;
+      }
+      return -1;
+    }
+    for (int i = from; i < to; i++) {
+      if (b.get(i) == 0)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index of the first zero word in <code>[from, to)</code>,
+   * stepping two bytes at a time, or -1.
+   */
+  static int indexOfNul16(@NotNull ByteBuffer b, int from, int to) {
+    for (int i = from; i + 1 < to; i += 2) {
+      if (b.get(i) == 0 && b.get(i + 1) == 0)
+        return i;
+    }
+    return -1;
+  }
+
+  @NotNull
+  static String decode(@NotNull ByteBuffer b, int from, int length) {
+    if (b.hasArray())
+      return new String(b.array(), b.arrayOffset() + from, length, ISO_8859_1);
+    byte[] a = new byte[length];
+    for (int i = 0; i < length; i++) {
+      a[i] = b.get(from + i);
+    }
+    return new String(a, ISO_8859_1);
+  }
+
+  /**
+   * Decodes <code>count</code> chars starting at <code>from</code> of a
+   * little-endian buffer.
+   */
+  @NotNull
+  static String decode16(@NotNull ByteBuffer b, int from, int count) {
+    char[] c = new char[count];
+    for (int i = 0; i < count; i++) {
+      c[i] = b.getChar(from + i * 2);
+    }
+    return new String(c);
+  }
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.io;
+
+import org.boris.pecoff4j.ExceptionTable;
+import org.boris.pecoff4j.PE;
+import org.boris.pecoff4j.UnwindInfo;
+import org.boris.pecoff4j.constant.MachineType;
+import org.boris.pecoff4j.util.IntMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Decodes the unwind information of the functions in the exception table of
+ * an x64 image. Each UNWIND_INFO is only decoded when asked for, and then
+ * only once for each address.
+ */
+public class UnwindInfoReader {
+  @Nullable
+  private final ExceptionTable functions;
+  @NotNull
+  private final RVADataReader image;
+  @NotNull
+  private final IntMap<UnwindInfo> unwindInfos = new IntMap<UnwindInfo>();
+
+  /**
+   * Reads unwind information from the section data of a parsed image.
+   */
+  public UnwindInfoReader(@NotNull PE pe) {
+    this(pe, null);
+  }
+
+  /**
+   * @param file the file the image was parsed from, used for sections whose
+   *             data was not kept
+   */
+  public UnwindInfoReader(@NotNull PE pe, @Nullable IRandomAccessDataReader file) {
+    // Itanium uses the same RUNTIME_FUNCTION entries but another unwind layout
+    if (pe.getCoffHeader().getMachine() != MachineType.IMAGE_FILE_MACHINE_AMD64)
+      throw new IllegalArgumentException("Unwind information is only decoded for x64 images");
+    this.functions = pe.getImageData().getRuntimeFunctions();
+    this.image = new RVADataReader(pe, file);
+  }
+
+  /**
+   * Returns the decoded unwind information of a function in the exception
+   * table of the image.
+   */
+  @NotNull
+  public UnwindInfo getUnwindInfo(int index) throws IOException {
+    if (functions == null)
+      throw new IllegalArgumentException("Image has no exception table");
+    return read(functions.getUnwindInfoAddress(index));
+  }
+
+  /**
+   * Returns the unwind information at an RVA, for instance the one a
+   * chained entry refers to.
+   */
+  @NotNull
+  public UnwindInfo read(int rva) throws IOException {
+    UnwindInfo ui = unwindInfos.get(rva);
+    if (ui == null) {
+      if (!image.contains(rva, 4))
+        throw new IOException("Unwind information outside of the image: " + rva);
+      image.jumpTo(rva);
+      ui = PEParser.readUnwindInfo(image);
+      unwindInfos.put(rva, ui);
+    }
+    return ui;
+  }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.util;
+
+import org.boris.pecoff4j.constant.ImageDataDirectoryType;
+import org.boris.pecoff4j.io.PEProbe;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the Authenticode digest of an image: the file hashed without
+ * the checksum field, the certificate table entry of the data directory
+ * and the certificate table itself.
+ * <p/>
+ * The file is hashed as one stream up to the certificate table. For images
+ * whose sections follow the headers and each other without gaps this is
+ * the same as hashing the headers and then the sections in file order, as
+ * the specification describes it. The file is passed over once in chunks,
+ * each chunk going to all the digests while it is in the cache, so several
+ * algorithms cost hardly more I/O than one.
+ */
+public class AuthenticodeDigest {
+  public static final String SHA1 = "SHA-1";
+  public static final String SHA256 = "SHA-256";
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * Returns one digest per algorithm, in the order given.
+   */
+  @NotNull
+  public static byte[][] digest(@NotNull File file, @NotNull String... algorithms)
+          throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel fc = raf.getChannel();
+      long size = fc.size();
+      if (size > Integer.MAX_VALUE)
+        throw new IOException("File is too large to map: " + size);
+      return digest(fc.map(FileChannel.MapMode.READ_ONLY, 0, size), algorithms);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Digests a whole file held in <code>file</code> from offset 0, for
+   * instance a mapped file. Returns one digest per algorithm.
+   */
+  @NotNull
+  public static byte[][] digest(@NotNull ByteBuffer file, @NotNull String... algorithms)
+          throws IOException {
+    MessageDigest[] digests = new MessageDigest[algorithms.length];
+    for (int i = 0; i < algorithms.length; i++) {
+      try {
+        digests[i] = MessageDigest.getInstance(algorithms[i]);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalArgumentException("Unknown digest algorithm: " + algorithms[i], e);
+      }
+    }
+    update(file, digests);
+    byte[][] result = new byte[digests.length][];
+    for (int i = 0; i < digests.length; i++) {
+      result[i] = digests[i].digest();
+    }
+    return result;
+  }
+
+  /**
+   * Feeds the hashed ranges of <code>file</code> into the digests, which
+   * are left for the caller to finish.
+   */
+  public static void update(@NotNull ByteBuffer file, @NotNull MessageDigest... digests)
+          throws IOException {
+    ByteBuffer b = file.duplicate();
+    b.clear();
+    PEProbe probe = PEProbe.probe(b);
+    if (!probe.isValid())
+      throw new IOException("Not a PE file");
+
+    int length = b.limit();
+    int checkSum = probe.getCheckSumOffset();
+    int entry = -1;
+    int end = length;
+    if (probe.getDataDirectoryCount() > ImageDataDirectoryType.CERTIFICATE_TABLE) {
+      entry = probe.getDataDirectoryOffset() + ImageDataDirectoryType.CERTIFICATE_TABLE * 8;
+      // The certificate table is located by file offset, not by RVA
+      int pointer = probe.getDataDirectoryVirtualAddress(ImageDataDirectoryType.CERTIFICATE_TABLE);
+      int size = probe.getDataDirectorySize(ImageDataDirectoryType.CERTIFICATE_TABLE);
+      if (pointer != 0 && size != 0) {
+        if (pointer < entry + 8 || pointer > length || size < 0 || size > length - pointer)
+          throw new IOException("Certificate table lies outside the file: " + pointer);
+        end = pointer;
+      }
+    }
+    if (checkSum + 4 > end || entry >= 0 && (entry < checkSum + 4 || entry + 8 > end))
+      throw new IOException("Headers lie outside the hashed part of the file");
+
+    if (entry < 0) {
+      hash(b, 0, checkSum, digests);
+      hash(b, checkSum + 4, end, digests);
+    } else {
+      hash(b, 0, checkSum, digests);
+      hash(b, checkSum + 4, entry, digests);
+      hash(b, entry + 8, end, digests);
+    }
+  }
+
+  private static void hash(@NotNull ByteBuffer b, int from, int to, @NotNull MessageDigest[] digests) {
+    for (int start = from; start < to; ) {
+      int limit = (int) Math.min(to, (long) start + CHUNK_SIZE);
+      for (MessageDigest md : digests) {
+        b.limit(limit);
+        b.position(start);
+        md.update(b);
+      }
+      start = limit;
+    }
+    b.clear();
+  }
+}
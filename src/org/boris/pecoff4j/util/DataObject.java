@@ -9,14 +9,76 @@
  *******************************************************************************/
 package org.boris.pecoff4j.util;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Holds a block of raw data either as a byte array or as a read-only view
+ * into a larger buffer (for instance a section or a mapped file). A view is
+ * only copied into an array the first time {@link #get()} is called.
+ * <p/>
+ * Data read by the parser remembers where it was read from in the file, as
+ * long as it is unchanged, so that a writer can copy it straight from there.
+ */
 public class DataObject {
   private byte[] buffer;
+  private ByteBuffer view;
+  private long pointer = -1;
 
   public void set(byte[] buffer) {
     this.buffer = buffer;
+    this.view = null;
+    this.pointer = -1;
+  }
+
+  public void setBuffer(@Nullable ByteBuffer view) {
+    setBuffer(view, -1);
+  }
+
+  /**
+   * Sets the data as read from a file.
+   *
+   * @param pointer the file offset the data was read from
+   */
+  public void setBuffer(@Nullable ByteBuffer view, long pointer) {
+    this.buffer = null;
+    this.view = view == null ? null : view.asReadOnlyBuffer();
+    this.pointer = view == null ? -1 : pointer;
   }
 
+  /**
+   * Returns the data as an array. The array may be changed in place, so
+   * the data is no longer known to match the file once it is handed out.
+   */
   public byte[] get() {
+    if (buffer == null && view != null) {
+      byte[] b = new byte[view.remaining()];
+      view.duplicate().get(b);
+      buffer = b;
+      view = null;
+    }
+    pointer = -1;
     return buffer;
   }
+
+  /**
+   * Returns the file offset the data was read from, or -1 if it was not
+   * read from a file or may have been changed since.
+   */
+  public long getPointer() {
+    return pointer;
+  }
+
+  /**
+   * Returns a read-only view of the data without copying it.
+   */
+  @Nullable
+  public ByteBuffer getBuffer() {
+    if (view != null)
+      return view.duplicate();
+    if (buffer != null)
+      return ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+    return null;
+  }
 }
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.util;
+
+import org.boris.pecoff4j.ImportDirectory;
+import org.boris.pecoff4j.ImportLookupTable;
+import org.boris.pecoff4j.PE;
+import org.boris.pecoff4j.SectionHeader;
+import org.boris.pecoff4j.SectionTable;
+import org.boris.pecoff4j.constant.ImageDataDirectoryType;
+import org.boris.pecoff4j.io.ByteBufferDataReader;
+import org.boris.pecoff4j.io.PEParser;
+import org.boris.pecoff4j.io.ParseOptions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The digests used to triage a binary: the whole file, the raw data of each
+ * section, the import hash and the overlay (the data after the last
+ * section). The file is mapped once and only the headers and the import
+ * table are parsed.
+ * <p/>
+ * Small files are read in a single pass, each chunk going to every digest
+ * whose range it overlaps. For large files an executor can compute the
+ * file digest and the section and overlay digests side by side.
+ */
+public class Fingerprint {
+  public static final int FILE = 1;
+  public static final int SECTIONS = 2;
+  public static final int IMPORTS = 4;
+  public static final int OVERLAY = 8;
+  public static final int ALL = FILE | SECTIONS | IMPORTS | OVERLAY;
+
+  public static final String DEFAULT_ALGORITHM = "SHA-256";
+  /**
+   * Files smaller than this are digested on the calling thread.
+   */
+  public static final int PARALLEL_THRESHOLD = 16 * 1024 * 1024;
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  private final long length;
+  @Nullable
+  private final byte[] fileDigest;
+  @Nullable
+  private final String[] sectionNames;
+  @Nullable
+  private final byte[][] sectionDigests;
+  @Nullable
+  private final byte[] importHash;
+  private final long overlayOffset;
+  @Nullable
+  private final byte[] overlayDigest;
+
+  private Fingerprint(long length, @Nullable byte[] fileDigest, @Nullable String[] sectionNames,
+                      @Nullable byte[][] sectionDigests, @Nullable byte[] importHash,
+                      long overlayOffset, @Nullable byte[] overlayDigest) {
+    this.length = length;
+    this.fileDigest = fileDigest;
+    this.sectionNames = sectionNames;
+    this.sectionDigests = sectionDigests;
+    this.importHash = importHash;
+    this.overlayOffset = overlayOffset;
+    this.overlayDigest = overlayDigest;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  @Nullable
+  public byte[] getFileDigest() {
+    return fileDigest;
+  }
+
+  /**
+   * The section names, in section table order. Null if the sections were
+   * not asked for.
+   */
+  @Nullable
+  public String[] getSectionNames() {
+    return sectionNames;
+  }
+
+  /**
+   * The digests of the raw data of the sections, in section table order.
+   */
+  @Nullable
+  public byte[][] getSectionDigests() {
+    return sectionDigests;
+  }
+
+  /**
+   * The MD5 import hash ("imphash") of the lower case module.function
+   * names, or null if the imports were not asked for.
+   */
+  @Nullable
+  public byte[] getImportHash() {
+    return importHash;
+  }
+
+  /**
+   * The file offset the overlay starts at, or -1 if there is none.
+   */
+  public long getOverlayOffset() {
+    return overlayOffset;
+  }
+
+  @Nullable
+  public byte[] getOverlayDigest() {
+    return overlayDigest;
+  }
+
+  @NotNull
+  public static Fingerprint compute(@NotNull File file) throws IOException {
+    return compute(file, ALL, DEFAULT_ALGORITHM, null);
+  }
+
+  /**
+   * @param what      the digests to compute, a combination of {@link #FILE},
+   *                  {@link #SECTIONS}, {@link #IMPORTS} and {@link #OVERLAY}
+   * @param algorithm the digest used for the file, sections and overlay
+   * @param executor  computes digests of large files side by side, or null
+   */
+  @NotNull
+  public static Fingerprint compute(@NotNull File file, int what, @NotNull String algorithm,
+                                    @Nullable ExecutorService executor) throws IOException {
+    ByteBuffer b = ByteBufferDataReader.map(file);
+    int length = b.limit();
+
+    // Only the headers, and the import table if needed, are parsed
+    ParseOptions options = new ParseOptions();
+    options.setReadSections(false);
+    options.setReadTrailingData(false);
+    options.setReadDirectories(ImageDataDirectoryType.IMPORT_TABLE);
+    options.setHeadersOnly((what & IMPORTS) == 0);
+    PE pe = PEParser.read(new ByteBufferDataReader(b), options);
+    if (pe.getSectionTable() == null)
+      throw new IOException("Not a PE file: " + file);
+
+    // The ranges to digest: the whole file, each section and the overlay
+    List<int[]> ranges = new ArrayList<int[]>();
+    if ((what & FILE) != 0)
+      ranges.add(new int[]{0, length});
+    SectionTable st = pe.getSectionTable();
+    int ns = st.getNumberOfSections();
+    String[] sectionNames = null;
+    int firstSection = ranges.size();
+    int sectionEnd = 0;
+    for (int i = 0; i < ns; i++) {
+      SectionHeader sh = st.getHeader(i);
+      long start = Math.min(sh.getPointerToRawData() & 0xffffffffL, length);
+      long end = Math.min(start + (sh.getSizeOfRawData() & 0xffffffffL), length);
+      sectionEnd = Math.max(sectionEnd, (int) end);
+      if ((what & SECTIONS) != 0)
+        ranges.add(new int[]{(int) start, (int) end});
+    }
+    if ((what & SECTIONS) != 0) {
+      sectionNames = new String[ns];
+      for (int i = 0; i < ns; i++) {
+        sectionNames[i] = st.getHeader(i).getName();
+      }
+    }
+    long overlayOffset = sectionEnd > 0 && sectionEnd < length ? sectionEnd : -1;
+    int overlay = -1;
+    if ((what & OVERLAY) != 0 && overlayOffset >= 0) {
+      overlay = ranges.size();
+      ranges.add(new int[]{sectionEnd, length});
+    }
+
+    MessageDigest[] digests = new MessageDigest[ranges.size()];
+    for (int i = 0; i < digests.length; i++) {
+      digests[i] = getDigest(algorithm);
+    }
+    if (executor == null || length < PARALLEL_THRESHOLD)
+      digest(b, ranges, digests);
+    else
+      digest(b, ranges, digests, executor);
+
+    byte[] fileDigest = (what & FILE) != 0 ? digests[0].digest() : null;
+    byte[][] sectionDigests = null;
+    if ((what & SECTIONS) != 0) {
+      sectionDigests = new byte[ns][];
+      for (int i = 0; i < ns; i++) {
+        sectionDigests[i] = digests[firstSection + i].digest();
+      }
+    }
+    byte[] overlayDigest = overlay >= 0 ? digests[overlay].digest() : null;
+    byte[] importHash = (what & IMPORTS) != 0 ? importHash(pe) : null;
+    return new Fingerprint(length, fileDigest, sectionNames, sectionDigests, importHash,
+            overlayOffset, overlayDigest);
+  }
+
+  /**
+   * Reads the file once in chunks, passing each chunk to every range that
+   * overlaps it.
+   */
+  private static void digest(@NotNull ByteBuffer b, @NotNull List<int[]> ranges,
+                             @NotNull MessageDigest[] digests) {
+    ByteBuffer chunk = b.duplicate();
+    int length = b.limit();
+    for (int start = 0; start < length; ) {
+      int end = (int) Math.min(length, (long) start + CHUNK_SIZE);
+      for (int i = 0; i < digests.length; i++) {
+        int[] r = ranges.get(i);
+        int from = Math.max(start, r[0]);
+        int to = Math.min(end, r[1]);
+        if (from < to) {
+          chunk.limit(to);
+          chunk.position(from);
+          digests[i].update(chunk);
+          chunk.clear();
+        }
+      }
+      start = end;
+    }
+  }
+
+  /**
+   * Digests each range on the executor. The ranges read the same mapped
+   * pages, so the file is still only read from disk once.
+   */
+  private static void digest(@NotNull final ByteBuffer b, @NotNull List<int[]> ranges,
+                             @NotNull final MessageDigest[] digests,
+                             @NotNull ExecutorService executor) throws IOException {
+    List<Future<?>> tasks = new ArrayList<Future<?>>();
+    for (int i = 0; i < digests.length; i++) {
+      final int[] r = ranges.get(i);
+      final MessageDigest md = digests[i];
+      tasks.add(executor.submit(new Callable<Void>() {
+        public Void call() {
+          ByteBuffer range = b.duplicate();
+          range.limit(r[1]);
+          range.position(r[0]);
+          md.update(range);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<?> f : tasks) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while computing digests");
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to compute digests: " + e.getCause());
+    }
+  }
+
+  /**
+   * The MD5 of the imports as "module.function" pairs joined by commas, in
+   * import table order. Module names are lower case without a .dll, .ocx or
+   * .sys extension, function names are lower case and functions imported
+   * by ordinal are written as "ord" and the ordinal.
+   */
+  @NotNull
+  static byte[] importHash(@NotNull PE pe) {
+    StringBuilder sb = new StringBuilder();
+    ImportDirectory id = pe.getImageData().getImportTable();
+    ImportLookupTable ilt = id == null ? null : id.getLookupTable();
+    if (ilt != null) {
+      for (int m = 0; m < ilt.getModuleCount(); m++) {
+        String module = ilt.getModuleName(m);
+        module = module == null ? "" : module.toLowerCase(Locale.ENGLISH);
+        int dot = module.lastIndexOf('.');
+        if (dot >= 0) {
+          String ext = module.substring(dot + 1);
+          if (ext.equals("dll") || ext.equals("ocx") || ext.equals("sys"))
+            module = module.substring(0, dot);
+        }
+        int first = ilt.getFirstImport(m);
+        for (int i = first; i < first + ilt.getImportCount(m); i++) {
+          if (sb.length() > 0)
+            sb.append(',');
+          sb.append(module).append('.');
+          if (ilt.isOrdinal(i))
+            sb.append("ord").append(ilt.getOrdinal(i));
+          else
+            sb.append(ilt.getName(i).toLowerCase(Locale.ENGLISH));
+        }
+      }
+    }
+    return getDigest("MD5").digest(sb.toString().getBytes(ISO_8859_1));
+  }
+
+  @NotNull
+  private static MessageDigest getDigest(@NotNull String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+    }
+  }
+
+  @NotNull
+  public static String toHex(@Nullable byte[] digest) {
+    if (digest == null)
+      return "-";
+    StringBuilder sb = new StringBuilder(digest.length * 2);
+    for (byte d : digest) {
+      sb.append(Character.forDigit(d >> 4 & 0xf, 16)).append(Character.forDigit(d & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("file ").append(toHex(fileDigest));
+    if (sectionDigests != null) {
+      for (int i = 0; i < sectionDigests.length; i++) {
+        sb.append(", ").append(sectionNames[i]).append(' ').append(toHex(sectionDigests[i]));
+      }
+    }
+    sb.append(", imphash ").append(toHex(importHash));
+    sb.append(", overlay ").append(toHex(overlayDigest));
+    return sb.toString();
+  }
+}
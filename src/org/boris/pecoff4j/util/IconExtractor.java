@@ -10,8 +10,8 @@
 package org.boris.pecoff4j.util;
 
 import org.boris.pecoff4j.PE;
-import org.boris.pecoff4j.ResourceDirectory;
 import org.boris.pecoff4j.ResourceEntry;
+import org.boris.pecoff4j.ResourceIndex;
 import org.boris.pecoff4j.constant.ResourceType;
 import org.boris.pecoff4j.io.DataReader;
 import org.boris.pecoff4j.io.DataWriter;
@@ -27,11 +27,10 @@ import java.io.IOException;
 public class IconExtractor {
   public static void extract(@NotNull File pecoff, File outputDir) throws IOException {
     PE pe = PEParser.parse(pecoff);
-    ResourceDirectory rd = pe.getImageData().getResourceTable();
-    if (rd == null)
+    ResourceIndex index = pe.getImageData().getResourceIndex();
+    if (index == null)
       return;
-    ResourceEntry[] entries = ResourceHelper.findResources(rd,
-            ResourceType.GROUP_ICON);
+    ResourceEntry[] entries = index.findResources(ResourceType.GROUP_ICON);
     for (int i = 0; i < entries.length; i++) {
       GroupIconDirectory gid = GroupIconDirectory.read(entries[i]
               .getData());
@@ -48,8 +47,8 @@ public class IconExtractor {
         IconDirectoryEntry ide = new IconDirectoryEntry();
         ide.copyFrom(gide);
         icd.add(ide);
-        ResourceEntry[] icos = ResourceHelper.findResources(rd,
-                ResourceType.ICON, gide.getId());
+        ResourceEntry[] icos = index.findResources(ResourceType.ICON,
+                gide.getId());
         if (icos == null || icos.length != 1) {
           throw new IOException("Unexpected icons in resource file");
         }
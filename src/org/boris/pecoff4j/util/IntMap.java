@@ -1,7 +1,7 @@
 /*******************************************************************************
  * This program and the accompanying materials
  * are made available under the terms of the Common Public License v1.0
- * which accompanies this distribution, and is available at 
+ * which accompanies this distribution, and is available at
  * http://www.eclipse.org/legal/cpl-v10.html
  *
  * Contributors:
@@ -12,106 +12,189 @@ package org.boris.pecoff4j.util;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-public class IntMap {
-  private Entry[] hashtable;
+import java.util.Arrays;
+
+/**
+ * A map from int keys to values with open addressing and linear probing.
+ * The table doubles once it is fuller than the load factor. Null values
+ * are not stored, putting one removes the key.
+ * <p/>
+ * Entries can be walked without allocating:
+ * <pre>
+ * for (int s = map.first(); s >= 0; s = map.next(s)) {
+ *   int key = map.keyAt(s);
+ *   V value = map.valueAt(s);
+ * }
+ * </pre>
+ */
+public class IntMap<V> {
+  public static final float DEFAULT_LOAD_FACTOR = 0.5f;
+
+  private int[] keys;
+  private V[] values;
   private int size;
+  private int mask;
+  private int threshold;
+  private final float loadFactor;
 
   public IntMap() {
     this(16);
   }
 
   public IntMap(int size) {
-    hashtable = new Entry[size];
+    this(size, DEFAULT_LOAD_FACTOR);
+  }
+
+  public IntMap(int size, float loadFactor) {
+    if (loadFactor <= 0 || loadFactor >= 1)
+      throw new IllegalArgumentException("Load factor must be between 0 and 1: " + loadFactor);
+    this.loadFactor = loadFactor;
+    int capacity = 2;
+    while (capacity * loadFactor < size && capacity < 1 << 30) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = (V[]) new Object[capacity];
+    mask = capacity - 1;
+    threshold = Math.min((int) (capacity * loadFactor), capacity - 1);
+  }
+
+  private int slot(int key) {
+    int h = key * 0x9E3779B9;
+    return (h ^ h >>> 16) & mask;
+  }
+
+  /**
+   * Returns the slot holding the key, or -1.
+   */
+  private int find(int key) {
+    int i = slot(key);
+    while (values[i] != null) {
+      if (keys[i] == key)
+        return i;
+      i = (i + 1) & mask;
+    }
+    return -1;
   }
 
   public void remove(int key) {
-    int pos = Math.abs((int) (key % hashtable.length));
-    Entry e = hashtable[pos];
-    if (e == null) {
+    int i = find(key);
+    if (i < 0)
       return;
-    } else if (e.key == key) {
-      hashtable[pos] = e.next;
-      size--;
-    } else {
-      Entry prev = e;
-      e = e.next;
-      while (e != null) {
-        if (e.key == key) {
-          prev.next = e.next;
-          size--;
-        }
-        prev = e;
-        e = e.next;
-      }
+    values[i] = null;
+    size--;
+
+    // Move back entries that probed past the freed slot
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (values[j] == null)
+        return;
+      int home = slot(keys[j]);
+      // Keep the entry if its home lies cyclically in (i, j]
+      if (i <= j ? i < home && home <= j : i < home || home <= j)
+        continue;
+      keys[i] = keys[j];
+      values[i] = values[j];
+      values[j] = null;
+      i = j;
     }
   }
 
-  public void put(int key, Object value) {
-    int pos = Math.abs((int) (key % hashtable.length));
-    Entry e = hashtable[pos];
-    if (e == null) {
-      hashtable[pos] = new Entry(key, value);
-      size++;
-    } else if (e.key == key) {
-      e.value = value;
-    } else {
-      while (e.next != null) {
-        if (e.next.key == key) {
-          e.next.value = value;
-          return;
-        }
-        e = e.next;
+  public void put(int key, @Nullable V value) {
+    if (value == null) {
+      remove(key);
+      return;
+    }
+    int i = slot(key);
+    while (values[i] != null) {
+      if (keys[i] == key) {
+        values[i] = value;
+        return;
       }
-      e.next = new Entry(key, value);
-      size++;
+      i = (i + 1) & mask;
     }
+    keys[i] = key;
+    values[i] = value;
+    if (++size > threshold)
+      rehash(keys.length << 1);
   }
 
-  @Nullable
-  public Object get(int key) {
-    int pos = Math.abs((int) (key % hashtable.length));
-    Entry e = hashtable[pos];
-    if (e == null) {
-      return null;
-    } else if (e.key == key) {
-      return e.value;
-    } else {
-      while (e.next != null) {
-        if (e.next.key == key) {
-          return e.next.value;
+  private void rehash(int capacity) {
+    int[] oldKeys = keys;
+    V[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != null) {
+        int j = slot(oldKeys[i]);
+        while (values[j] != null) {
+          j = (j + 1) & mask;
         }
-        e = e.next;
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
       }
     }
-    return null;
+  }
+
+  @Nullable
+  public V get(int key) {
+    int i = find(key);
+    return i < 0 ? null : values[i];
+  }
+
+  public boolean containsKey(int key) {
+    return find(key) >= 0;
+  }
+
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
   }
 
   @NotNull
   public int[] keySet() {
-    int[] keys = new int[size];
+    int[] keySet = new int[size];
     int idx = 0;
-    for (int i = 0; i < hashtable.length; i++) {
-      Entry e = hashtable[i];
-      while (e != null) {
-        keys[idx++] = e.key;
-        e = e.next;
-      }
+    for (int s = first(); s >= 0; s = next(s)) {
+      keySet[idx++] = keys[s];
     }
-    return keys;
+    return keySet;
   }
 
   public int size() {
     return size;
   }
 
-  private class Entry {
-    public int key;
-    public Object value;
-    public Entry next;
+  /**
+   * Returns the first occupied slot, or -1 if the map is empty.
+   */
+  public int first() {
+    return next(-1);
+  }
 
-    public Entry(int key, Object value) {
-      this.key = key;
-      this.value = value;
+  /**
+   * Returns the occupied slot after <code>slot</code>, or -1. The map must
+   * not be changed while it is walked.
+   */
+  public int next(int slot) {
+    for (int i = slot + 1; i < values.length; i++) {
+      if (values[i] != null)
+        return i;
     }
+    return -1;
+  }
+
+  public int keyAt(int slot) {
+    return keys[slot];
+  }
+
+  @NotNull
+  public V valueAt(int slot) {
+    return values[slot];
   }
 }
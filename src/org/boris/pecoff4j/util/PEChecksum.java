@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.util;
+
+import org.boris.pecoff4j.io.PEProbe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the image checksum of the optional header: the file summed as
+ * 16 bit words with the carries folded back in, leaving out the checksum
+ * field, plus the file length.
+ * <p/>
+ * Folding the carries makes this a ones' complement sum, which does not
+ * depend on the width it is added up in. The file is therefore summed 32
+ * bits at a time in a long, read 8 bytes at a time, and only folded down to
+ * 16 bits at the end. Large files can be split into chunks that are summed
+ * on an executor.
+ */
+public class PEChecksum {
+  /**
+   * Files smaller than this are summed on the calling thread.
+   */
+  public static final int PARALLEL_THRESHOLD = 16 * 1024 * 1024;
+  private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+  private static final int CHECKSUM_SIZE = 4;
+
+  /**
+   * Returns the checksum of a whole file held in <code>file</code> from
+   * offset 0, for instance a mapped file.
+   */
+  public static int compute(@NotNull ByteBuffer file) throws IOException {
+    return compute(file, checkSumOffset(file), null);
+  }
+
+  /**
+   * @param checkSumOffset the file offset of the checksum field
+   * @param executor       sums chunks of a large file in parallel, or null
+   */
+  public static int compute(@NotNull ByteBuffer file, int checkSumOffset,
+                            @Nullable ExecutorService executor) throws IOException {
+    final ByteBuffer b = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    b.clear();
+    int length = b.limit();
+    long sum;
+    if (executor == null || length < PARALLEL_THRESHOLD) {
+      sum = sum(b, 0, length);
+    } else {
+      List<Future<Long>> chunks = new ArrayList<Future<Long>>();
+      for (int start = 0; start < length; start += CHUNK_SIZE) {
+        final int from = start;
+        final int to = (int) Math.min((long) start + CHUNK_SIZE, length);
+        chunks.add(executor.submit(new Callable<Long>() {
+          public Long call() {
+            return sum(b, from, to);
+          }
+        }));
+      }
+      sum = 0;
+      try {
+        for (Future<Long> f : chunks) {
+          sum = fold32(sum + f.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while computing the checksum");
+      } catch (ExecutionException e) {
+        throw new IOException("Failed to compute the checksum: " + e.getCause());
+      }
+    }
+
+    // Take the checksum field back out: in ones' complement adding the
+    // inverse of a word subtracts it
+    if (checkSumOffset >= 0 && checkSumOffset <= length - CHECKSUM_SIZE) {
+      long field = sum(b, checkSumOffset, checkSumOffset + CHECKSUM_SIZE);
+      sum = fold16(sum) + (~fold16(field) & 0xffff);
+    }
+    return (int) (fold16(sum) + length);
+  }
+
+  /**
+   * Computes the checksum of a file without changing it.
+   */
+  public static int compute(@NotNull File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return compute(raf.getChannel(), null);
+    } finally {
+      raf.close();
+    }
+  }
+
+  public static int compute(@NotNull FileChannel fc, @Nullable ExecutorService executor)
+          throws IOException {
+    ByteBuffer b = map(fc, FileChannel.MapMode.READ_ONLY);
+    return compute(b, checkSumOffset(b), executor);
+  }
+
+  /**
+   * Computes the checksum of a file and writes it into the optional header.
+   * Returns the new checksum.
+   */
+  public static int update(@NotNull File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      return update(raf.getChannel(), null);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Computes the checksum of a file open for reading and writing and writes
+   * it into the optional header. Returns the new checksum.
+   */
+  public static int update(@NotNull FileChannel fc, @Nullable ExecutorService executor)
+          throws IOException {
+    ByteBuffer b = map(fc, FileChannel.MapMode.READ_ONLY);
+    int offset = checkSumOffset(b);
+    int checkSum = compute(b, offset, executor);
+    ByteBuffer field = ByteBuffer.allocate(CHECKSUM_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    field.putInt(0, checkSum);
+    while (field.hasRemaining()) {
+      fc.write(field, offset + field.position());
+    }
+    return checkSum;
+  }
+
+  /**
+   * Computes the checksum of an image held in an array and writes it into
+   * the optional header. Returns the new checksum.
+   */
+  public static int update(@NotNull byte[] file) throws IOException {
+    ByteBuffer b = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+    int offset = checkSumOffset(b);
+    int checkSum = compute(b, offset, null);
+    b.putInt(offset, checkSum);
+    return checkSum;
+  }
+
+  private static int checkSumOffset(@NotNull ByteBuffer file) throws IOException {
+    PEProbe probe = PEProbe.probe(file);
+    if (!probe.isValid())
+      throw new IOException("Not a PE file");
+    return probe.getCheckSumOffset();
+  }
+
+  @NotNull
+  private static ByteBuffer map(@NotNull FileChannel fc, @NotNull FileChannel.MapMode mode)
+          throws IOException {
+    long size = fc.size();
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("File is too large for a checksum: " + size);
+    return fc.map(mode, 0, size);
+  }
+
+  /**
+   * Sums the bytes from <code>from</code> to <code>to</code> as little
+   * endian 16 bit words, unfolded. A range starting at an odd offset holds
+   * its words with the bytes swapped, so its folded sum is swapped back.
+   */
+  private static long sum(@NotNull ByteBuffer b, int from, int to) {
+    long sum = 0;
+    int i = from;
+    for (; i <= to - 8; i += 8) {
+      long v = b.getLong(i);
+      sum += (v & 0xffffffffL) + (v >>> 32);
+    }
+    for (; i <= to - 2; i += 2) {
+      sum += b.getShort(i) & 0xffff;
+    }
+    if (i < to)
+      sum += b.get(i) & 0xff;
+    if ((from & 1) != 0) {
+      int s = (int) fold16(sum);
+      sum = (s >>> 8 | s << 8) & 0xffff;
+    }
+    return sum;
+  }
+
+  private static long fold32(long sum) {
+    while (sum >>> 32 != 0) {
+      sum = (sum & 0xffffffffL) + (sum >>> 32);
+    }
+    return sum;
+  }
+
+  private static long fold16(long sum) {
+    sum = fold32(sum);
+    while (sum >>> 16 != 0) {
+      sum = (sum & 0xffff) + (sum >>> 16);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.util;
+
+import org.boris.pecoff4j.BaseRelocationTable;
+import org.boris.pecoff4j.OptionalHeader;
+import org.boris.pecoff4j.PE;
+import org.boris.pecoff4j.SectionData;
+import org.boris.pecoff4j.SectionTable;
+import org.boris.pecoff4j.constant.BaseRelocationType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Moves a parsed image to another image base by applying its base
+ * relocations to the section data, as the loader would. The data of the
+ * sections must have been read.
+ */
+public class Rebaser {
+  /**
+   * Applies the relocations for <code>newImageBase</code> and updates the
+   * image base in the optional header. The section data is patched in
+   * place. All relocations are checked before any of them is applied, so
+   * the image is left unchanged when one of them cannot be. A PE32 image
+   * can only be moved to a base that fits in 32 bits.
+   */
+  public static void rebase(@NotNull PE pe, long newImageBase) throws IOException {
+    OptionalHeader oh = pe.getOptionalHeader();
+    if (!oh.isPE32plus() && (newImageBase & 0xffffffffL) != newImageBase)
+      throw new IllegalArgumentException("Image base of a PE32 image must fit in 32 bits: 0x" +
+              Long.toHexString(newImageBase));
+    long delta = newImageBase - oh.getImageBase();
+    if (delta == 0)
+      return;
+    BaseRelocationTable brt = pe.getImageData().getBaseRelocations();
+    if (brt == null)
+      throw new IOException("Image has no base relocations");
+
+    SectionTable st = pe.getSectionTable();
+    ByteBuffer[] buffers = new ByteBuffer[st.getNumberOfSections()];
+    relocate(brt, st, buffers, delta, false);
+    relocate(brt, st, buffers, delta, true);
+    oh.setImageBase(newImageBase);
+  }
+
+  /**
+   * Walks the relocation blocks, throwing on the first relocation that
+   * cannot be applied. The section data is only patched when
+   * <code>apply</code> is set.
+   */
+  private static void relocate(@NotNull BaseRelocationTable brt, @NotNull SectionTable st,
+                               @NotNull ByteBuffer[] buffers, long delta, boolean apply)
+          throws IOException {
+    int sectionAddress = 0;
+    ByteBuffer data = null;
+
+    for (int block = 0; block < brt.getBlockCount(); block++) {
+      int page = brt.getPageRVA(block);
+      int first = brt.getFirstEntry(block);
+      int last = first + brt.getEntryCount(block);
+      for (int e = first; e < last; e++) {
+        int type = brt.getType(e);
+        if (type == BaseRelocationType.IMAGE_REL_BASED_ABSOLUTE)
+          continue;
+        int rva = page + brt.getOffset(e);
+        // Blocks are per page, so the section rarely changes
+        if (data == null || rva < sectionAddress || rva - sectionAddress >= data.limit()) {
+          int section = st.indexOfVirtualAddress(rva);
+          if (section < 0)
+            throw new IOException("Relocation outside of any section: " + rva);
+          if (buffers[section] == null)
+            buffers[section] = wrap(st, section);
+          data = buffers[section];
+          sectionAddress = st.getHeader(section).getVirtualAddress();
+        }
+        int offset = rva - sectionAddress;
+        switch (type) {
+          case BaseRelocationType.IMAGE_REL_BASED_HIGHLOW:
+            if (apply && offset <= data.limit() - 4)
+              data.putInt(offset, data.getInt(offset) + (int) delta);
+            break;
+          case BaseRelocationType.IMAGE_REL_BASED_DIR64:
+            if (apply && offset <= data.limit() - 8)
+              data.putLong(offset, data.getLong(offset) + delta);
+            break;
+          case BaseRelocationType.IMAGE_REL_BASED_HIGH:
+            if (apply && offset <= data.limit() - 2)
+              data.putShort(offset, (short) (((data.getShort(offset) << 16) + (int) delta) >>> 16));
+            break;
+          case BaseRelocationType.IMAGE_REL_BASED_LOW:
+            if (apply && offset <= data.limit() - 2)
+              data.putShort(offset, (short) (data.getShort(offset) + (int) delta));
+            break;
+          case BaseRelocationType.IMAGE_REL_BASED_HIGHADJ:
+            // The low half of the value is held in the next entry
+            if (++e >= last)
+              throw new IOException("Missing low half of HIGHADJ relocation at " + rva);
+            if (apply && offset <= data.limit() - 2) {
+              int value = (data.getShort(offset) << 16) + (short) brt.getEntry(e);
+              value += (int) delta + 0x8000;
+              data.putShort(offset, (short) (value >>> 16));
+            }
+            break;
+          default:
+            throw new IOException("Unsupported relocation type " + type + " at " + rva);
+        }
+      }
+    }
+  }
+
+  @NotNull
+  private static ByteBuffer wrap(@NotNull SectionTable st, int index) throws IOException {
+    SectionData sd = st.getSection(index);
+    byte[] b = sd == null ? null : sd.getData();
+    if (b == null)
+      throw new IOException("Data of section " + st.getHeader(index).getName() + " was not read");
+    // getData() hands out the array the section holds, so it is patched in place
+    return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -9,8 +9,10 @@
  *******************************************************************************/
 package org.boris.pecoff4j.util;
 
+import org.boris.pecoff4j.PE;
 import org.boris.pecoff4j.ResourceDirectory;
 import org.boris.pecoff4j.ResourceEntry;
+import org.boris.pecoff4j.ResourceIndex;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
@@ -28,34 +30,33 @@ public class ResourceHelper {
 
   public static ResourceEntry[] findResources(@NotNull ResourceDirectory rd, int type,
                                               int name, int lang) {
-    List<ResourceEntry> entries = new ArrayList();
-    findResources(rd, type, name, lang, entries);
-    return entries.toArray(new ResourceEntry[0]);
+    List<ResourceEntry> entries = new ArrayList<ResourceEntry>();
+    findResources(rd, new int[]{type, name, lang}, 0, entries);
+    return entries.toArray(new ResourceEntry[entries.size()]);
   }
 
-  private static void findResources(@NotNull ResourceDirectory parent, int type,
-                                    int name, int language, @NotNull List<ResourceEntry> entries) {
-    int id = type;
-    if (id == -1)
-      id = name;
-    if (id == -1)
-      id = language;
+  /**
+   * Finds resources through the index of a parsed image, which is built
+   * once instead of walking the tree on every call.
+   */
+  @NotNull
+  public static ResourceEntry[] findResources(@NotNull PE pe, int type, int name, int lang) {
+    ResourceIndex index = pe.getImageData().getResourceIndex();
+    return index == null ? new ResourceEntry[0] : index.findResources(type, name, lang);
+  }
+
+  private static void findResources(@NotNull ResourceDirectory parent, @NotNull int[] ids,
+                                    int level, @NotNull List<ResourceEntry> entries) {
+    int id = level < ids.length ? ids[level] : -1;
     for (int i = 0; i < parent.size(); i++) {
       ResourceEntry e = parent.get(i);
       if (id == -1 || id == e.getId()) {
-        if (e.getData() != null)
+        if (e.getDataBuffer() != null)
           entries.add(e);
         else {
           ResourceDirectory rd = e.getDirectory();
-          if (rd != null) {
-            if (type != -1)
-              type = -1;
-            else if (name != -1)
-              name = -1;
-            else
-              language = -1;
-            findResources(rd, type, name, language, entries);
-          }
+          if (rd != null)
+            findResources(rd, ids, level + 1, entries);
         }
       }
     }
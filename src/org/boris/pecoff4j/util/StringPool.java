@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out one shared instance for equal strings, so that names repeated
+ * across a file (section names, DLL names, resource names) are only kept
+ * once. A pool may be shared by parses running on several threads.
+ */
+public class StringPool {
+  @NotNull
+  private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<String, String>();
+
+  @Nullable
+  public String intern(@Nullable String s) {
+    if (s == null)
+      return null;
+    String pooled = strings.putIfAbsent(s, s);
+    return pooled != null ? pooled : s;
+  }
+
+  public int size() {
+    return strings.size();
+  }
+}
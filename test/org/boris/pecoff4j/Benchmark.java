@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times a few workloads side by side for a number of rounds and prints the
+ * time per operation of each. The results of the workloads are summed and
+ * looked at, so that the work cannot be optimized away.
+ */
+public class Benchmark {
+  public interface Workload {
+    /**
+     * Runs the workload once and returns any value derived from its result.
+     */
+    int run() throws Exception;
+  }
+
+  @NotNull
+  private final String name;
+  private final long operations;
+  @NotNull
+  private final List<String> labels = new ArrayList<String>();
+  @NotNull
+  private final List<Workload> workloads = new ArrayList<Workload>();
+
+  /**
+   * @param operations the number of operations one run of a workload does
+   */
+  public Benchmark(@NotNull String name, long operations) {
+    this.name = name;
+    this.operations = operations;
+  }
+
+  @NotNull
+  public Benchmark add(@NotNull String label, @NotNull Workload workload) {
+    labels.add(label);
+    workloads.add(workload);
+    return this;
+  }
+
+  public void run(int iterations, int rounds) throws Exception {
+    for (int round = 0; round < rounds; round++) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(name).append(", round ").append(round).append(':');
+      for (int i = 0; i < workloads.size(); i++) {
+        long time = time(workloads.get(i), iterations);
+        sb.append(i == 0 ? " " : ", ").append(labels.get(i)).append(' ')
+                .append(time / (iterations * operations)).append(" ns/op");
+      }
+      System.out.println(sb);
+    }
+  }
+
+  private static long time(@NotNull Workload workload, int iterations) throws Exception {
+    int sink = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      sink += workload.run();
+    }
+    long time = System.nanoTime() - start;
+    if (sink == 42)
+      System.out.println();
+    return time;
+  }
+}
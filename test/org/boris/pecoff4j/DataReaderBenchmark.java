@@ -0,0 +1,65 @@
+package org.boris.pecoff4j;
+
+import org.boris.pecoff4j.io.ByteBufferDataReader;
+import org.boris.pecoff4j.io.DataReader;
+import org.boris.pecoff4j.io.IDataReader;
+import org.boris.pecoff4j.io.PEParser;
+import org.boris.pecoff4j.util.IO;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the stream DataReader against the ByteBufferDataReader on a
+ * header-only workload: DOS header and stub, PE signature, COFF header,
+ * optional header and section table.
+ */
+public class DataReaderBenchmark {
+  public static void main(String[] args) throws Exception {
+    File f = new File(args.length > 0 ? args[0] : "C:\\windows\\system32\\kernel32.dll");
+    final byte[] b = IO.toBytes(f);
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+    check(b);
+    new Benchmark("headers", 1)
+            .add("stream", new Benchmark.Workload() {
+              public int run() throws IOException {
+                return readHeaders(new DataReader(new ByteArrayInputStream(b))).getNumberOfSections();
+              }
+            })
+            .add("buffer", new Benchmark.Workload() {
+              public int run() throws IOException {
+                return readHeaders(new ByteBufferDataReader(ByteBuffer.wrap(b))).getNumberOfSections();
+              }
+            })
+            .run(iterations, 5);
+  }
+
+  private static void check(@NotNull byte[] b) throws IOException {
+    SectionTable stream = readHeaders(new DataReader(new ByteArrayInputStream(b)));
+    SectionTable buffer = readHeaders(new ByteBufferDataReader(ByteBuffer.wrap(b)));
+    if (stream.getNumberOfSections() != buffer.getNumberOfSections())
+      throw new IllegalStateException("Section counts differ");
+    for (int i = 0; i < stream.getNumberOfSections(); i++) {
+      SectionHeader s = stream.getHeader(i);
+      SectionHeader bs = buffer.getHeader(i);
+      if (!s.getName().equals(bs.getName()) || s.getPointerToRawData() != bs.getPointerToRawData())
+        throw new IllegalStateException("Section " + i + " differs");
+    }
+  }
+
+  @NotNull
+  private static SectionTable readHeaders(@NotNull IDataReader dr) throws IOException {
+    PE pe = new PE();
+    pe.setDosHeader(PEParser.readDos(dr));
+    pe.setStub(PEParser.readStub(pe.getDosHeader(), dr));
+    pe.setSignature(PEParser.readSignature(dr));
+    pe.setCoffHeader(PEParser.readCOFF(dr));
+    pe.setOptionalHeader(PEParser.readOptional(dr));
+    pe.setSectionTable(PEParser.readSectionHeaders(pe, dr));
+    return pe.getSectionTable();
+  }
+}
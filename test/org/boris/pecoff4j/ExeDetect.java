@@ -1,9 +1,10 @@
 package org.boris.pecoff4j;
 
+import org.boris.pecoff4j.constant.MachineType;
+import org.boris.pecoff4j.io.PEProbe;
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 public class ExeDetect {
   public static void main(String[] args) throws Exception {
@@ -14,14 +15,9 @@ public class ExeDetect {
   }
 
   public static boolean is64Bit(File exe) throws IOException {
-    InputStream is = new FileInputStream(exe);
-    int magic = is.read() | is.read() << 8;
-    if (magic != 0x5A4D)
+    PEProbe probe = PEProbe.probe(exe);
+    if (!probe.isDosSignatureValid())
       throw new IOException("Invalid Exe");
-    for (int i = 0; i < 58; i++) is.read();
-    int address = is.read() | is.read() << 8 | is.read() << 16 | is.read() << 24;
-    for (int i = 0; i < address - 60; i++) is.read();
-    int machineType = is.read() | is.read() << 8;
-    return machineType == 0x8664;
+    return probe.getMachine() == MachineType.IMAGE_FILE_MACHINE_AMD64;
   }
 }
@@ -0,0 +1,97 @@
+package org.boris.pecoff4j;
+
+import org.boris.pecoff4j.util.IntMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares IntMap against HashMap&lt;Integer, V&gt;. The section workload
+ * fills and reads a map keyed by section index; the resource workload uses
+ * a few thousand scattered resource ids. Each operation is a put followed
+ * by two gets.
+ */
+public class IntMapBenchmark {
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+    check();
+    int[] sections = new int[16];
+    for (int i = 0; i < sections.length; i++) {
+      sections[i] = i;
+    }
+    int[] resources = new int[4000];
+    Random r = new Random(42);
+    for (int i = 0; i < resources.length; i++) {
+      resources[i] = r.nextInt(0x10000);
+    }
+
+    benchmark("sections", sections).run(iterations * 100, 5);
+    benchmark("resources", resources).run(iterations, 5);
+  }
+
+  @NotNull
+  private static Benchmark benchmark(@NotNull String name, @NotNull final int[] keys) {
+    return new Benchmark(name, keys.length)
+            .add("HashMap", new Benchmark.Workload() {
+              public int run() {
+                Map<Integer, int[]> map = new HashMap<Integer, int[]>();
+                for (int key : keys) {
+                  map.put(key, keys);
+                }
+                int found = 0;
+                for (int key : keys) {
+                  if (map.get(key) != null)
+                    found++;
+                  if (map.get(key + 1) != null)
+                    found++;
+                }
+                return found;
+              }
+            })
+            .add("IntMap", new Benchmark.Workload() {
+              public int run() {
+                IntMap<int[]> map = new IntMap<int[]>();
+                for (int key : keys) {
+                  map.put(key, keys);
+                }
+                int found = 0;
+                for (int key : keys) {
+                  if (map.get(key) != null)
+                    found++;
+                  if (map.get(key + 1) != null)
+                    found++;
+                }
+                return found;
+              }
+            });
+  }
+
+  private static void check() {
+    IntMap<Integer> map = new IntMap<Integer>(4);
+    Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    Random r = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      int key = r.nextInt(512) - 256;
+      if (r.nextInt(3) == 0) {
+        map.remove(key);
+        expected.remove(key);
+      } else {
+        map.put(key, i);
+        expected.put(key, i);
+      }
+    }
+    if (map.size() != expected.size())
+      throw new IllegalStateException("Size " + map.size() + " != " + expected.size());
+    int count = 0;
+    for (int s = map.first(); s >= 0; s = map.next(s)) {
+      if (!map.valueAt(s).equals(expected.get(map.keyAt(s))))
+        throw new IllegalStateException("Wrong value for " + map.keyAt(s));
+      count++;
+    }
+    if (count != expected.size() || map.keySet().length != count)
+      throw new IllegalStateException("Iterated " + count + " entries");
+  }
+}
@@ -0,0 +1,102 @@
+package org.boris.pecoff4j;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+/**
+ * Times both directions of the RVAConverter on synthetic images with 5, 50
+ * and 500 sections, and checks them against a linear scan of the sections.
+ */
+public class RVAConverterBenchmark {
+  private static final int[] SECTION_COUNTS = {5, 50, 500};
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+    for (int count : SECTION_COUNTS) {
+      SectionHeader[] headers = createSections(count);
+      final RVAConverter converter = new RVAConverter(headers);
+      final int[] rvas = createAddresses(headers, 4096);
+      check(converter, headers, rvas);
+
+      new Benchmark(count + " sections", rvas.length)
+              .add("rva to pointer", new Benchmark.Workload() {
+                public int run() {
+                  int sum = 0;
+                  for (int rva : rvas) {
+                    sum += converter.rvaToRawPointer(rva);
+                  }
+                  return sum;
+                }
+              })
+              .add("pointer to rva", new Benchmark.Workload() {
+                public int run() {
+                  int sum = 0;
+                  for (int rva : rvas) {
+                    sum += converter.rawPointerToRva(rva);
+                  }
+                  return sum;
+                }
+              })
+              .run(iterations / rvas.length, 5);
+    }
+  }
+
+  @NotNull
+  private static SectionHeader[] createSections(int count) {
+    SectionHeader[] headers = new SectionHeader[count];
+    int va = 0x1000;
+    int prd = 0x400;
+    Random r = new Random(count);
+    for (int i = 0; i < count; i++) {
+      SectionHeader sh = new SectionHeader();
+      int size = (r.nextInt(16) + 1) * 0x200;
+      sh.setVirtualAddress(va);
+      sh.setVirtualSize(size + 1 + r.nextInt(0x200));
+      sh.setPointerToRawData(prd);
+      sh.setSizeOfRawData(size);
+      headers[i] = sh;
+      va += (sh.getVirtualSize() + 0xfff) & ~0xfff;
+      prd += size;
+    }
+    return headers;
+  }
+
+  @NotNull
+  private static int[] createAddresses(@NotNull SectionHeader[] headers, int count) {
+    Random r = new Random(42);
+    int[] rvas = new int[count];
+    for (int i = 0; i < count; i++) {
+      SectionHeader sh = headers[r.nextInt(headers.length)];
+      rvas[i] = sh.getVirtualAddress() + r.nextInt(sh.getSizeOfRawData());
+    }
+    return rvas;
+  }
+
+  private static void check(@NotNull RVAConverter converter, @NotNull SectionHeader[] headers,
+                            @NotNull int[] rvas) {
+    for (int rva : rvas) {
+      int pointer = converter.rvaToRawPointer(rva);
+      if (pointer != scan(headers, rva) ||
+              pointer != converter.convertVirtualAddressToRawDataPointer(rva) ||
+              converter.rawPointerToRva(pointer) != rva)
+        throw new IllegalStateException("Mismatch at " + Integer.toHexString(rva));
+    }
+    SectionHeader last = headers[headers.length - 1];
+    int end = last.getVirtualAddress() + last.getVirtualSize();
+    if (converter.rvaToRawPointer(end) != RVAConverter.UNMAPPED ||
+            converter.sectionIndexForRva(end - 1) != headers.length - 1 ||
+            converter.rvaToRawPointer(end - 1) != RVAConverter.UNMAPPED)
+      throw new IllegalStateException("Bounds are not checked");
+  }
+
+  private static int scan(@NotNull SectionHeader[] headers, int rva) {
+    for (SectionHeader sh : headers) {
+      int offset = rva - sh.getVirtualAddress();
+      if (offset >= 0 && offset < sh.getSizeOfRawData())
+        return sh.getPointerToRawData() + offset;
+    }
+    return RVAConverter.UNMAPPED;
+  }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j;
+
+import org.boris.pecoff4j.io.PEParser;
+import org.boris.pecoff4j.util.IO;
+import org.boris.pecoff4j.util.PEChecksum;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks the computed checksum against the one stored in the given files,
+ * for those that have one, so the files have to be known-good images whose
+ * linker wrote a correct checksum. Then pads a copy of the first of them past
+ * {@link PEChecksum#PARALLEL_THRESHOLD} and checks that summing it on an
+ * executor gives the same checksum as summing it on one thread.
+ */
+public class TestPEChecksum {
+  public static void main(String[] args) throws Exception {
+    File[] files = new File[args.length];
+    for (int i = 0; i < args.length; i++) {
+      files[i] = new File(args[i]);
+    }
+    if (files.length == 0)
+      files = TestParseDLLs.findPEs();
+    int checked = 0;
+    int failed = 0;
+    File first = null;
+    for (File f : files) {
+      PE pe = PEParser.parse(f);
+      if (pe.getOptionalHeader() == null)
+        continue;
+      if (first == null)
+        first = f;
+      int stored = pe.getOptionalHeader().getCheckSum();
+      if (stored == 0)
+        continue;
+      int computed = PEChecksum.compute(f);
+      if (computed != stored) {
+        System.out.println(f + ": computed " + Integer.toHexString(computed) +
+                ", stored " + Integer.toHexString(stored));
+        failed++;
+      }
+      checked++;
+    }
+    System.out.println(checked + " stored checksums, " + failed + " failed");
+    if (first == null)
+      return;
+
+    // An odd length, so that the last chunk ends in a single byte
+    File large = File.createTempFile("checksum", ".dll");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      IO.copy(new FileInputStream(first), new FileOutputStream(large), true);
+      byte[] padding = new byte[PEChecksum.PARALLEL_THRESHOLD + 12345];
+      new Random(42).nextBytes(padding);
+      FileOutputStream os = new FileOutputStream(large, true);
+      os.write(padding);
+      os.close();
+      RandomAccessFile raf = new RandomAccessFile(large, "r");
+      try {
+        int sequential = PEChecksum.compute(raf.getChannel(), null);
+        int parallel = PEChecksum.compute(raf.getChannel(), executor);
+        int array = PEChecksum.update(IO.toBytes(large));
+        if (sequential != parallel || sequential != array) {
+          System.out.println(large.length() + " bytes: sequential " + Integer.toHexString(sequential) +
+                  ", parallel " + Integer.toHexString(parallel) + ", array " + Integer.toHexString(array));
+          failed++;
+        }
+      } finally {
+        raf.close();
+      }
+    } finally {
+      executor.shutdown();
+      large.delete();
+    }
+    if (failed > 0)
+      throw new IllegalStateException(failed + " checksums failed");
+  }
+}
@@ -1,6 +1,7 @@
 package org.boris.pecoff4j;
 
-import org.boris.pecoff4j.io.PEParser;
+import org.boris.pecoff4j.io.PEBatchCallback;
+import org.boris.pecoff4j.io.PEBatchParser;
 import org.boris.pecoff4j.util.IO;
 import org.boris.pecoff4j.util.Reflection;
 import org.jetbrains.annotations.NotNull;
@@ -11,21 +12,32 @@ import java.io.FilenameFilter;
 public class TestParseDLLs {
 
   public static void main(String[] args) throws Exception {
-    File[] files = findPEs();
-    for (int i = 0; i < files.length; i++) {
-      System.out.println(files[i]);
-      PE pe = PEParser.parse(files[i]);
-      System.out.println(Reflection.toString(pe));
-    }
+    PEBatchParser.parse(new File("F:/Program Files/"), createFilter(),
+            Runtime.getRuntime().availableProcessors(), new PEBatchCallback() {
+      public synchronized void parsed(@NotNull File file, @NotNull PE pe) {
+        System.out.println(file);
+        System.out.println(Reflection.toString(pe));
+      }
+
+      public synchronized void failed(@NotNull File file, @NotNull Throwable error) {
+        System.out.println(file);
+        error.printStackTrace(System.out);
+      }
+    });
   }
 
-  public static File[] findPEs() {
-    FilenameFilter ff = new FilenameFilter() {
+  @NotNull
+  private static FilenameFilter createFilter() {
+    return new FilenameFilter() {
       public boolean accept(File dir, @NotNull String name) {
         return (name.endsWith(".dll") || name.endsWith(".exe")) &&
                 name.indexOf("dllcache") == -1;
       }
     };
+  }
+
+  public static File[] findPEs() {
+    FilenameFilter ff = createFilter();
     File[] files = IO.findFiles(new File("F:/Program Files/"), ff);
     // File[] files = IO.findFiles(new File("C:/Program Files/"), ff);
     // File[] files = IO.findFiles(new File("C:/windows/system32"), ff);
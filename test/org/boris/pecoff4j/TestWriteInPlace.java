@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This program and the accompanying materials
+ * are made available under the terms of the Common Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/cpl-v10.html
+ *******************************************************************************/
+package org.boris.pecoff4j;
+
+import org.boris.pecoff4j.io.PEAssembler;
+import org.boris.pecoff4j.io.PEParser;
+import org.boris.pecoff4j.util.Diff;
+import org.boris.pecoff4j.util.IO;
+import org.boris.pecoff4j.util.PEChecksum;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+/**
+ * Parses copies of the given files, changes a header field and writes each
+ * image back over the file it was parsed from, which holds its data. Also
+ * writes an image over a longer file, which has to be cut to the image.
+ */
+public class TestWriteInPlace {
+  public static void main(String[] args) throws Exception {
+    File[] files = new File[args.length];
+    for (int i = 0; i < args.length; i++) {
+      files[i] = new File(args[i]);
+    }
+    if (files.length == 0)
+      files = TestParseDLLs.findPEs();
+    int failed = 0;
+    for (File f : files) {
+      File copy = File.createTempFile("inplace", ".dll");
+      try {
+        IO.copy(new FileInputStream(f), new FileOutputStream(copy), true);
+        PE pe = PEParser.parse(copy);
+        if (pe.getOptionalHeader() == null)
+          continue;
+        pe.getCoffHeader().setTimeDateStamp(0x12345678);
+        byte[] expected = PEAssembler.toBytes(pe);
+        PEAssembler.write(pe, copy);
+        if (!Diff.equals(expected, IO.toBytes(copy), false)) {
+          System.out.println(f + ": written file differs");
+          failed++;
+          continue;
+        }
+        PE written = PEParser.parse(copy);
+        written.getCoffHeader().setTimeDateStamp(0x23456789);
+        PEAssembler.write(written, copy, true);
+        PE rewritten = PEParser.parse(copy);
+        if (rewritten.getCoffHeader().getTimeDateStamp() != 0x23456789 ||
+                rewritten.getOptionalHeader().getCheckSum() != PEChecksum.compute(copy)) {
+          System.out.println(f + ": rewrite with checksum lost the change");
+          failed++;
+          continue;
+        }
+
+        // Written over a longer file that it was not parsed from
+        FileOutputStream os = new FileOutputStream(copy, true);
+        os.write(new byte[4096]);
+        os.close();
+        PE other = PEParser.parse(f);
+        PEAssembler.write(other, copy);
+        if (!Diff.equals(PEAssembler.toBytes(other), IO.toBytes(copy), false)) {
+          System.out.println(f + ": longer file was not cut to the image");
+          failed++;
+        }
+      } catch (Throwable e) {
+        System.out.println(f);
+        e.printStackTrace();
+        failed++;
+      } finally {
+        copy.delete();
+      }
+    }
+    System.out.println(files.length + " files, " + failed + " failed");
+  }
+}